@@ -10,11 +10,23 @@ import java.text.DecimalFormat;
 import java.time.LocalDateTime;
 import java.util.Locale;
 import java.util.Properties;
+import com.github.martonr.picalc.engine.calculators.CalculatorShapleyDP;
 import com.github.martonr.picalc.engine.service.SimulationParameters;
 import com.github.martonr.picalc.engine.service.ServiceSimulationTask.ResultDelta;
 
 public final class ServiceSimulationFile {
 
+    /**
+     * The cost of the largest exact calculation allowed, this is the cost of going through every
+     * permutation of 15 players
+     */
+    private static final long EXACT_LIMIT = 15L * 1307674368000L;
+
+    /**
+     * The largest player count for an exact DPI calculation, it goes through every coalition
+     */
+    private static final int EXACT_DPI_LIMIT = 20;
+
     private final Properties properties = new Properties();
 
     public int threadsRequested = 1;
@@ -35,9 +47,10 @@ public final class ServiceSimulationFile {
         System.out.println(builder.toString());
 
         int players, votes, quota, quotaFrom, quotaTo, threads = 1, max, limit;
-        long simulations = 0, count = 0;
+        long simulations = 0, count = 0, seed = 0, cacheMemory = -1;
         double epsilon = 0.001;
-        boolean isDpi;
+        boolean isDpi, conditional, quasiRandom;
+        String cacheDirectory;
 
         try {
             players = Integer.parseInt(properties.getProperty("players"));
@@ -56,6 +69,13 @@ public final class ServiceSimulationFile {
 
             isDpi = Boolean.parseBoolean(properties.getProperty("dpi"));
             threads = Integer.parseInt(properties.getProperty("threads"));
+
+            // Older properties files do not have a seed
+            seed = Long.parseLong(properties.getProperty("seed", "0"));
+            conditional = Boolean.parseBoolean(properties.getProperty("conditional", "false"));
+            quasiRandom = Boolean.parseBoolean(properties.getProperty("quasiRandom", "false"));
+            cacheMemory = Long.parseLong(properties.getProperty("cacheMemory", "-1"));
+            cacheDirectory = properties.getProperty("cacheDirectory", "").trim();
         } catch (Exception ex) {
             System.out.println("Failed to parse properties file!");
             return null;
@@ -72,7 +92,18 @@ public final class ServiceSimulationFile {
         }
 
         // If player count is too large need to do Monte-Carlo estimation
-        if (players > 15 && count < 1) {
+        // The DPI is always calculated by going through every coalition,
+        // the classic indices can be calculated with a dynamic program if it is cheap enough
+        boolean exactPossible;
+        if (isDpi) {
+            exactPossible = players <= EXACT_DPI_LIMIT;
+        } else {
+            exactPossible = players <= 15
+                    || (CalculatorShapleyDP.cost(players, quotaFrom, votes) <= EXACT_LIMIT
+                            && CalculatorShapleyDP.cost(players, quotaTo, votes) <= EXACT_LIMIT);
+        }
+
+        if (count < 1 && !exactPossible) {
             System.out.println(
                     "Must do MC estimation with this many players! Specify an indexEstimationMC value.");
             return null;
@@ -140,6 +171,12 @@ public final class ServiceSimulationFile {
         parameters.tolerance = epsilon;
         parameters.monteCarloCount = simulations;
         parameters.isDpi = isDpi;
+        parameters.seed = seed;
+        parameters.conditional = conditional;
+        parameters.quasiRandom = quasiRandom;
+        // The file has megabytes
+        parameters.cacheMemory = (cacheMemory < 0) ? -1 : (cacheMemory << 20);
+        parameters.cacheDirectory = cacheDirectory.isEmpty() ? null : cacheDirectory;
 
         this.threadsRequested = threads;
 
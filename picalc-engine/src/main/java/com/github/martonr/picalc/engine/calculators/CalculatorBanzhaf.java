@@ -2,6 +2,11 @@ package com.github.martonr.picalc.engine.calculators;
 
 import com.github.martonr.picalc.engine.generators.GeneratorCombination;
 import com.github.martonr.picalc.engine.generators.GeneratorCombinationRandom;
+import com.github.martonr.picalc.engine.generators.GeneratorGrayCode;
+import com.github.martonr.picalc.engine.generators.GeneratorPermutationRandom;
+import com.github.martonr.picalc.engine.generators.GeneratorSubmultiset;
+import com.github.martonr.picalc.engine.random.PCGRandom;
+import java.util.random.RandomGenerator;
 
 public final class CalculatorBanzhaf {
 
@@ -16,11 +21,60 @@ public final class CalculatorBanzhaf {
 
     private final GeneratorCombinationRandom generatorRandom;
 
+    private final GeneratorGrayCode generatorGray;
+
+    private final GeneratorPermutationRandom generatorPermutation;
+
+    private final GeneratorSubmultiset generatorClasses;
+
+    private final PlayerClasses classes;
+
+    private final double[] classValues;
+
+    private final int[] order;
+
+    private final int[] sortedVotes;
+
+    private final long[] critical;
+
+    private final int[] byVotes;
+
+    private final int[] inside;
+
+    private final double[] credit;
+
+    private double[] totals = new double[2];
+
     public CalculatorBanzhaf(int n) {
+        this(n, new PCGRandom());
+    }
+
+    /**
+     * The estimations draw from the given random stream, so the caller can hand out streams
+     * split from one generator or reseed it. Other generators than PCGRandom seed a new PCG
+     * stream.
+     */
+    public CalculatorBanzhaf(int n, RandomGenerator.SplittableGenerator random) {
+        this(n, PCGRandom.from(random));
+    }
+
+    private CalculatorBanzhaf(int n, PCGRandom random) {
         this.n = n;
         this.zeros = new double[n];
         this.generator = new GeneratorCombination(n);
-        this.generatorRandom = new GeneratorCombinationRandom(n);
+        this.generatorRandom = new GeneratorCombinationRandom(n, random);
+        // The players are enumerated as bits of a long, above that only the classes are used
+        this.generatorGray = (n < 62) ? new GeneratorGrayCode(n) : null;
+        this.generatorClasses = new GeneratorSubmultiset(n);
+        this.classes = new PlayerClasses(n);
+        this.classValues = new double[n];
+        this.order = new int[n];
+        this.sortedVotes = new int[n];
+        this.critical = new long[n];
+        this.generatorPermutation = new GeneratorPermutationRandom(n, random);
+        this.byVotes = new int[n];
+        this.inside = new int[n];
+        this.credit = new double[n];
     }
 
     public static final void normalizeBF(double[] values) {
@@ -36,11 +90,225 @@ public final class CalculatorBanzhaf {
             values[i] /= s;
     }
 
+    /**
+     * The number of combinations for a range split, the ranges go from 0 to this value.
+     *
+     * @param n the player count, at most 61
+     * @return 2^n - 1
+     */
+    public static final long combinationCount(int n) {
+        return (1L << n) - 1;
+    }
+
+    /**
+     * Checks if the players are grouped into classes of equal votes for the calculation, in which
+     * case the calculation can not be split into ranges.
+     *
+     * @param votes the votes of the players
+     * @return True if the calculation goes through the classes
+     */
+    public final boolean isGrouped(int[] votes) {
+        classes.group(votes);
+
+        // Players with equal votes are interchangeable, going through the number of players
+        // taken from each class is cheaper if there are enough of them
+        return n >= 62 || classes.count() < (1L << n) / classes.m;
+    }
+
     public final void calculate(CalculatorParameters params, double[] results) {
-        int sum, m, player, quota = params.quota;
+        if (isGrouped(params.votes)) {
+            calculateClasses(params, results);
+        } else {
+            calculatePlayers(params, results);
+        }
+    }
+
+    /**
+     * Counts the critical players in the combinations with a rank in (from, to], the ranges of
+     * several calls can be added up, then normalized with normalizeBF.
+     *
+     * @param params the parameters
+     * @param from the start of the range, exclusive
+     * @param to the end of the range, inclusive
+     * @param results the critical counts
+     */
+    public final void calculateRange(CalculatorParameters params, long from, long to,
+            double[] results) {
+        if (!countCritical(params, from, to))
+            return;
+
+        for (int i = 0; i < n; ++i)
+            results[order[i]] = critical[i];
+    }
+
+    final void calculatePlayers(CalculatorParameters params, double[] results) {
+        if (!countCritical(params, 0, combinationCount(n)))
+            return;
+
+        for (int i = 0; i < n; ++i)
+            results[order[i]] = critical[i];
+
+        // Normalize the counts
+        // This is the original Banzhaf-index which is normalized with the total of critical counts
+        double total = 0;
+        for (int i = 0; i < n; ++i)
+            total += results[i];
+
+        // Guard against the case when nobody is critical (quota is more than total votes)
+        if (total == 0)
+            total = 1;
+
+        for (int i = 0; i < n; ++i)
+            results[i] /= total;
+
+        // This is the modified version from
+        // "Mathematical properties of the Banzhaf power index" by Dubey & Shapley, 1979
+        // It normalizes with 2^(n - 1)
+        // This however does not add up to 1, and the sum here represents
+        // "the expected number of pivot players in a combination"
+        // for (int i = 0; i < n; ++i) banzhaf[i] /= POW_2N[n - 1];
+    }
+
+    private final boolean countCritical(CalculatorParameters params, long from, long to) {
+        int bit, j, sum = 0, slack, quota = params.quota;
+        int[] votes = params.votes;
+        long mask, members;
+
+        // The bits of the Gray code are the players in order of decreasing votes,
+        // so the members of a coalition come up from the largest to the smallest
+        sortPlayers(votes);
+
+        for (int i = 0; i < n; ++i)
+            critical[i] = 0;
+
+        generatorGray.initialize(from, to);
+
+        // The vote total of the starting combination
+        mask = generatorGray.mask;
+        while (mask != 0) {
+            sum += sortedVotes[Long.numberOfTrailingZeros(mask)];
+            mask &= mask - 1;
+        }
+
+        while (generatorGray.hasNext) {
+            bit = generatorGray.next();
+            mask = generatorGray.mask;
+
+            // Only checked every 2^16 steps, when a high bit flips
+            if (bit > 15 && Thread.currentThread().isInterrupted())
+                return false;
+
+            // A single player joins or leaves the combination, update the vote total
+            if ((mask & (1L << bit)) != 0) {
+                sum += sortedVotes[bit];
+            } else {
+                sum -= sortedVotes[bit];
+            }
+
+            // If the combination reaches the quota
+            if (sum < quota)
+                continue;
+
+            // A player is critical if without their vote the combination does not meet the
+            // quota, that is if their votes are above the slack
+            // Once a member is not above the slack the smaller ones are not either
+            slack = sum - quota;
+            members = mask;
+            while (members != 0) {
+                j = Long.numberOfTrailingZeros(members);
+                if (sortedVotes[j] <= slack)
+                    break;
+                critical[j]++;
+                members &= members - 1;
+            }
+        }
+
+        return true;
+    }
+
+    private final void sortPlayers(int[] votes) {
+        // Insertion sort of the players by decreasing votes
+        int j, player;
+        for (int i = 0; i < n; ++i) {
+            player = i;
+            for (j = i; j > 0 && votes[order[j - 1]] < votes[player]; --j)
+                order[j] = order[j - 1];
+            order[j] = player;
+        }
+
+        for (int i = 0; i < n; ++i)
+            sortedVotes[i] = votes[order[i]];
+    }
+
+    final void calculateClasses(CalculatorParameters params, double[] results) {
+        int sum, k, quota = params.quota;
+        int[] counts;
+        double ways;
+
+        classes.group(params.votes);
+
+        int m = classes.m;
+        int[] sizes = classes.sizes, votes = classes.votes;
+        double[][] binomial = classes.binomial;
+
+        System.arraycopy(zeros, 0, classValues, 0, m);
+
+        // For every combination, given by the number of players taken from each class
+        generatorClasses.initialize(sizes, m);
+        while (generatorClasses.hasNext) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            counts = generatorClasses.next();
+            sum = 0;
+            ways = 1;
+
+            for (int b = 0; b < m; ++b) {
+                k = counts[b];
+                sum += k * votes[b];
+                ways *= binomial[sizes[b]][k];
+            }
+
+            if (sum < quota)
+                continue;
+
+            // A player of a class is critical if they are in the combination and without their
+            // votes it does not meet the quota, k / c of the combinations contain a given player
+            for (int b = 0; b < m; ++b) {
+                k = counts[b];
+                if (k > 0 && sum - votes[b] < quota)
+                    classValues[b] += ways * k / sizes[b];
+            }
+        }
+
+        // Normalize with the total of critical counts over all players
+        double total = 0;
+        for (int b = 0; b < m; ++b)
+            total += classValues[b] * sizes[b];
+
+        if (total == 0)
+            total = 1;
+
+        for (int b = 0; b < m; ++b)
+            classValues[b] /= total;
+
+        classes.expand(classValues, results);
+    }
+
+    /**
+     * Calculates the Banzhaf index for several quotas with a single pass through the
+     * combinations.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param quotas the quotas to calculate the index for
+     * @param results the index values for each quota, in the order of the quotas
+     */
+    public final void calculate(CalculatorParameters params, int[] quotas, double[][] results) {
+        int sum, m, player, quota, count = quotas.length;
         int[] votes = params.votes, combination;
+        double[] values;
 
-        System.arraycopy(zeros, 0, results, 0, n);
+        for (int j = 0; j < count; ++j)
+            System.arraycopy(zeros, 0, results[j], 0, n);
 
         while (generator.hasNext) {
             if (Thread.currentThread().isInterrupted())
@@ -55,15 +323,17 @@ public final class CalculatorBanzhaf {
                 sum += votes[player];
             }
 
-            // If the combination reaches the quota
-            if (sum >= quota) {
-                // Check which players are critical for this combination
-                // A player is critical if without their vote
-                // the combination does not meet the quota
+            // Check the critical players for every quota the combination reaches
+            for (int j = 0; j < count; ++j) {
+                quota = quotas[j];
+                if (sum < quota)
+                    continue;
+
+                values = results[j];
                 for (int i = 0; i < m; ++i) {
                     player = combination[i];
                     if (sum - votes[player] < quota) {
-                        results[player] += 1;
+                        values[player] += 1;
                     }
                 }
             }
@@ -71,28 +341,29 @@ public final class CalculatorBanzhaf {
 
         this.generator.reset();
 
-        // Normalize the counts
-        // This is the original Banzhaf-index which is normalized with the total of critical counts
-        double total = 0;
-        for (int i = 0; i < n; ++i)
-            total += results[i];
+        // Normalize the counts with the total of critical counts for every quota
+        for (int j = 0; j < count; ++j) {
+            values = results[j];
 
-        // Guard against the case when nobody is critical (quota is more than total votes)
-        if (total == 0)
-            total = 1;
+            double total = 0;
+            for (int i = 0; i < n; ++i)
+                total += values[i];
 
-        for (int i = 0; i < n; ++i)
-            results[i] /= total;
+            if (total == 0)
+                total = 1;
 
-        // This is the modified version from
-        // "Mathematical properties of the Banzhaf power index" by Dubey & Shapley, 1979
-        // It normalizes with 2^(n - 1)
-        // This however does not add up to 1, and the sum here represents
-        // "the expected number of pivot players in a combination"
-        // for (int i = 0; i < n; ++i) banzhaf[i] /= POW_2N[n - 1];
+            for (int i = 0; i < n; ++i)
+                values[i] /= total;
+        }
     }
 
     public final void calculateMC(CalculatorParameters params, double[] results, long mc) {
+        generatorRandom.quasiRandom(params.quasiRandom, mc);
+        if (params.conditional) {
+            calculateConditional(params, results, mc);
+            return;
+        }
+
         int sum, m, player, quota = params.quota;
         int[] votes = params.votes, combination;
 
@@ -122,4 +393,241 @@ public final class CalculatorBanzhaf {
 
         // Calculate final index values outside
     }
+
+    final void calculateConditional(CalculatorParameters params, double[] results, long mc) {
+        // Leaving a player out of a random coalition gives a random coalition of the others,
+        // so every coalition is a sample for every player, not only for its members
+        // A member is critical if the coalition wins without it, a player outside if the
+        // coalition wins with it, the counts are twice the ones of calculateMC on average
+        // Players with equal votes are interchangeable, they are counted together
+        int sum, size, b, t, quota = params.quota;
+        int[] votes = classes.votes, sizes = classes.sizes, classOf = classes.classOf, combination;
+
+        classes.group(params.votes);
+        classes.sortByVotes(byVotes);
+        int m = classes.m;
+
+        for (b = 0; b < m; ++b)
+            credit[b] = 0;
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            combination = generatorRandom.next();
+            size = generatorRandom.m;
+            sum = 0;
+
+            for (b = 0; b < m; ++b)
+                inside[b] = 0;
+
+            for (int i = 0; i < size; ++i) {
+                sum += params.votes[combination[i]];
+                inside[classOf[combination[i]]]++;
+            }
+
+            // The classes with more votes than the surplus, or at least the shortfall
+            if (sum >= quota) {
+                for (t = 0; t < m; ++t) {
+                    b = byVotes[t];
+                    if (votes[b] <= sum - quota)
+                        break;
+                    credit[b] += inside[b];
+                }
+            } else {
+                for (t = 0; t < m; ++t) {
+                    b = byVotes[t];
+                    if (votes[b] < quota - sum)
+                        break;
+                    credit[b] += sizes[b] - inside[b];
+                }
+            }
+        }
+
+        // The class counts are shared by its players
+        for (int i = 0; i < n; ++i)
+            results[i] = credit[classOf[i]] / sizes[classOf[i]];
+
+        // Calculate final index values outside
+    }
+
+    /**
+     * Estimates the Banzhaf index for several quotas from the same combinations. The estimates
+     * are coupled, so their differences are much less noisy than the differences of separate
+     * estimates, and every combination is only drawn once.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param quotas the quotas to estimate the index for
+     * @param results the critical counts for each quota, in the order of the quotas
+     * @param mc the number of samples
+     */
+    public final void calculateMC(CalculatorParameters params, int[] quotas, double[][] results,
+            long mc) {
+        generatorRandom.quasiRandom(params.quasiRandom, mc);
+        if (params.conditional) {
+            calculateConditional(params, quotas, results, mc);
+            return;
+        }
+
+        int sum, m, player, quota, count = quotas.length;
+        int[] votes = params.votes, combination;
+        double[] values;
+
+        for (int q = 0; q < count; ++q)
+            System.arraycopy(zeros, 0, results[q], 0, n);
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            combination = generatorRandom.next();
+            m = generatorRandom.m;
+            sum = 0;
+
+            for (int i = 0; i < m; ++i) {
+                player = combination[i];
+                sum += votes[player];
+            }
+
+            // Check the critical players for every quota the combination reaches
+            for (int q = 0; q < count; ++q) {
+                quota = quotas[q];
+                if (sum < quota)
+                    continue;
+
+                values = results[q];
+                for (int i = 0; i < m; ++i) {
+                    player = combination[i];
+                    if (sum - votes[player] < quota) {
+                        values[player] += 1;
+                    }
+                }
+            }
+        }
+
+        // Calculate final index values outside
+    }
+
+    final void calculateConditional(CalculatorParameters params, int[] quotas,
+            double[][] results, long mc) {
+        // The same credits as for one quota, counted for every quota from the same coalition
+        int sum, size, b, t, q, quota, count = quotas.length;
+        int[] votes = classes.votes, sizes = classes.sizes, classOf = classes.classOf, combination;
+        double[] values;
+
+        classes.group(params.votes);
+        classes.sortByVotes(byVotes);
+        int m = classes.m;
+
+        // The class credits are kept at the start of the results until the end
+        for (q = 0; q < count; ++q)
+            System.arraycopy(zeros, 0, results[q], 0, n);
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            combination = generatorRandom.next();
+            size = generatorRandom.m;
+            sum = 0;
+
+            for (b = 0; b < m; ++b)
+                inside[b] = 0;
+
+            for (int i = 0; i < size; ++i) {
+                sum += params.votes[combination[i]];
+                inside[classOf[combination[i]]]++;
+            }
+
+            for (q = 0; q < count; ++q) {
+                quota = quotas[q];
+                values = results[q];
+                if (sum >= quota) {
+                    for (t = 0; t < m; ++t) {
+                        b = byVotes[t];
+                        if (votes[b] <= sum - quota)
+                            break;
+                        values[b] += inside[b];
+                    }
+                } else {
+                    for (t = 0; t < m; ++t) {
+                        b = byVotes[t];
+                        if (votes[b] < quota - sum)
+                            break;
+                        values[b] += sizes[b] - inside[b];
+                    }
+                }
+            }
+        }
+
+        // The class counts are shared by its players
+        for (q = 0; q < count; ++q) {
+            values = results[q];
+            System.arraycopy(values, 0, credit, 0, m);
+            for (int i = 0; i < n; ++i)
+                values[i] = credit[classOf[i]] / sizes[classOf[i]];
+        }
+
+        // Calculate final index values outside
+    }
+
+    /**
+     * Estimates the Banzhaf index of one player for several quotas from the same combinations.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param player the player
+     * @param quotas the quotas to estimate the index for
+     * @param results the Banzhaf index of the player for each quota, in the order of the quotas
+     * @param mc the number of samples
+     */
+    public final void calculateMC(CalculatorParameters params, int player, int[] quotas,
+            double[] results, long mc) {
+        // Leaving the player out of a random coalition gives a random coalition of the others,
+        // so every coalition is a sample for the player, whether it is a member or not
+        // The index is normalized with the total of the critical counts, the critical members of
+        // the same coalitions give half of that total on average
+        int sum, size, quota, others, t, count = quotas.length, vote = params.votes[player];
+        int[] votes = params.votes, combination;
+        long[] bits = generatorRandom.bits;
+        double total;
+
+        if (totals.length < count)
+            totals = new double[count];
+        for (t = 0; t < count; ++t) {
+            results[t] = 0;
+            totals[t] = 0;
+        }
+
+        generatorRandom.quasiRandom(params.quasiRandom, mc);
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            combination = generatorRandom.next();
+            size = generatorRandom.m;
+            sum = 0;
+
+            for (int i = 0; i < size; ++i)
+                sum += votes[combination[i]];
+
+            others = (((bits[player >>> 6] >>> player) & 1) != 0) ? sum - vote : sum;
+
+            for (t = 0; t < count; ++t) {
+                quota = quotas[t];
+
+                // The player is critical if the others have [quota - votes, quota - 1]
+                if (others < quota && others >= quota - vote)
+                    results[t] += 1;
+
+                if (sum < quota)
+                    continue;
+
+                for (int i = 0; i < size; ++i)
+                    if (sum - votes[combination[i]] < quota)
+                        totals[t] += 1;
+            }
+        }
+
+        for (t = 0; t < count; ++t) {
+            total = 2 * totals[t];
+            results[t] = (total > 0) ? results[t] / total : 0;
+        }
+    }
 }
@@ -0,0 +1,245 @@
+package com.github.martonr.picalc.engine.calculators;
+
+import java.util.Arrays;
+
+/**
+ * Exact Banzhaf index calculation with a dynamic program over the vote total.
+ *
+ * Instead of going through all 2^n combinations, the number of combinations is counted for every
+ * possible vote total. A player is critical in a combination of the other players if the
+ * combination total is in [quota - votes, quota - 1], so the critical counts of a player can be
+ * read from the combination counts of the other players.
+ *
+ * Players with the same votes have the same counts, so the players are grouped into classes of
+ * equal votes. The counts without one player of each class are built by halving the classes: each
+ * half gets the counts of the other half added, until a single class is left. Removing a player
+ * from the counts of all players would be cheaper, but it subtracts nearly equal values and loses
+ * every digit with hundreds of players and high quotas.
+ *
+ * The cost is O(n * W * log m), where W is the lower of the quota and the total vote count and m
+ * is the number of distinct vote values. The counts do not depend on the quota, so any number of
+ * quotas can be read from the same counts, each for the cost of summing the counts of its vote
+ * totals.
+ */
+public final class CalculatorBanzhafDP {
+
+    private final int n;
+
+    private final int[] quota = new int[1];
+
+    private final double[][] single = new double[1][];
+
+    // The combination counts of each level of the halving
+    private double[][] levels = new double[1][];
+
+    // The length of the count arrays
+    private int capacity;
+
+    // The vote and the index of the players with votes, in the order of the votes
+    private final long[] order;
+
+    // The votes of each class and where its players start in the order
+    private final int[] classVotes;
+    private final int[] classStart;
+
+    // The number of classes
+    private int m;
+
+    public CalculatorBanzhafDP(int n, int votes) {
+        // The votes value is the expected total vote count of the players
+        // The arrays grow later if a larger total shows up
+        this.n = n;
+        this.capacity = votes + 1;
+        this.order = new long[n];
+        this.classVotes = new int[n];
+        this.classStart = new int[n + 1];
+    }
+
+    /**
+     * Estimates if the dynamic program is cheaper than enumerating every combination.
+     *
+     * @param n the player count
+     * @param quota the (largest) quota used in the calculation
+     * @return True if this calculator should be used for an exact calculation
+     */
+    public static final boolean isPreferred(int n, int quota) {
+        // Enumeration goes through 2^n combinations,
+        // the dynamic program goes through every vote total below the quota for every player twice
+        // on every level of the halving
+        if (n > 40)
+            return true;
+        return (1L << n) > 2L * quota * (32 - Integer.numberOfLeadingZeros(n));
+    }
+
+    public final void calculate(CalculatorParameters params, double[] results) {
+        quota[0] = params.quota;
+        single[0] = results;
+
+        calculate(params, quota, single);
+
+        single[0] = null;
+    }
+
+    /**
+     * Calculates the Banzhaf index for several quotas with the same combination counts. The cost
+     * of the counting does not depend on the number of quotas, so a full quota range costs about
+     * the same as a single quota.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param quotas the quotas to calculate the index for
+     * @param results the index values for each quota, in the order of the quotas
+     */
+    public final void calculate(CalculatorParameters params, int[] quotas, double[][] results) {
+        countCritical(params.votes, quotas, results);
+
+        for (int j = 0; j < quotas.length; ++j) {
+            double[] values = results[j];
+
+            // Normalize the counts
+            // This is the original Banzhaf-index which is normalized with the total of critical
+            // counts
+            double total = 0;
+            for (int i = 0; i < n; ++i)
+                total += values[i];
+
+            // Guard against the case when nobody is critical (quota is more than total votes)
+            if (total == 0)
+                total = 1;
+
+            for (int i = 0; i < n; ++i)
+                values[i] /= total;
+        }
+    }
+
+    private final void countCritical(int[] votes, int[] quotas, double[][] results) {
+        int sum = 0, max = 0, count = quotas.length;
+        for (int i = 0; i < n; ++i)
+            sum += votes[i];
+
+        for (int j = 0; j < count; ++j) {
+            if (quotas[j] > max)
+                max = quotas[j];
+            for (int i = 0; i < n; ++i)
+                results[j][i] = 0;
+        }
+
+        // Combinations with a total at or above the largest quota are never needed
+        int limit = max <= sum ? max : sum + 1;
+
+        if (limit <= 0 || Thread.currentThread().isInterrupted())
+            return;
+
+        // Group the players by their votes, the vote and the index are packed in one value, so
+        // sorting them puts the players of a class next to each other
+        // Players without votes are never critical and do not change the ratios
+        int c = 0;
+        for (int i = 0; i < n; ++i)
+            if (votes[i] > 0)
+                order[c++] = ((long) votes[i] << 32) | i;
+        Arrays.sort(order, 0, c);
+
+        m = 0;
+        for (int k = 0; k < c; ++k) {
+            if (k == 0 || (order[k] >>> 32) != (order[k - 1] >>> 32)) {
+                classVotes[m] = (int) (order[k] >>> 32);
+                classStart[m] = k;
+                m++;
+            }
+        }
+        classStart[m] = c;
+
+        if (m == 0)
+            return;
+
+        if (limit > capacity) {
+            capacity = limit;
+            for (int d = 0; d < levels.length; ++d)
+                levels[d] = null;
+        }
+
+        double[] f = level(0);
+        for (int w = 0; w < limit; ++w)
+            f[w] = 0;
+        f[0] = 1;
+
+        divide(0, m, 0, limit, quotas, results);
+    }
+
+    private final void divide(int from, int to, int depth, int limit, int[] quotas,
+            double[][] results) {
+        if (Thread.currentThread().isInterrupted())
+            return;
+
+        // The counts of the combinations of every class outside [from, to)
+        double[] base = levels[depth];
+        double[] f = level(depth + 1);
+
+        if (to - from == 1) {
+            // The other players of the class are the last ones to add
+            System.arraycopy(base, 0, f, 0, limit);
+            add(f, classVotes[from], classStart[from + 1] - classStart[from] - 1, limit);
+            read(f, from, limit, quotas, results);
+            return;
+        }
+
+        // Each half is calculated with the counts of the other half added
+        int mid = (from + to) >>> 1;
+
+        System.arraycopy(base, 0, f, 0, limit);
+        for (int b = mid; b < to; ++b)
+            add(f, classVotes[b], classStart[b + 1] - classStart[b], limit);
+        divide(from, mid, depth + 1, limit, quotas, results);
+
+        System.arraycopy(base, 0, f, 0, limit);
+        for (int b = from; b < mid; ++b)
+            add(f, classVotes[b], classStart[b + 1] - classStart[b], limit);
+        divide(mid, to, depth + 1, limit, quotas, results);
+    }
+
+    private static final void add(double[] f, int v, int size, int limit) {
+        // The counts are kept as a fraction of all combinations (multiplied by 1/2 per player),
+        // so they do not overflow with hundreds of players, the index is a ratio anyway
+        // Only sums and halvings, the counts keep their relative precision
+        for (int k = 0; k < size; ++k) {
+            for (int w = limit - 1; w >= v; --w)
+                f[w] = 0.5 * (f[w] + f[w - v]);
+            for (int w = (v < limit ? v : limit) - 1; w >= 0; --w)
+                f[w] *= 0.5;
+        }
+    }
+
+    private final void read(double[] f, int b, int limit, int[] quotas, double[][] results) {
+        int v = classVotes[b], low, high, q, i;
+        double s;
+
+        for (int j = 0; j < quotas.length; ++j) {
+            q = quotas[j];
+
+            // The player is critical for combinations with a total of [quota - v, quota - 1]
+            low = q - v;
+            if (low < 0)
+                low = 0;
+            high = q <= limit ? q : limit;
+
+            // The counts are summed one by one, a difference of running totals would lose the
+            // small counts near the largest totals
+            s = 0;
+            for (int w = low; w < high; ++w)
+                s += f[w];
+
+            // Players with the same votes have the same counts
+            for (int k = classStart[b]; k < classStart[b + 1]; ++k) {
+                i = (int) order[k];
+                results[j][i] = s;
+            }
+        }
+    }
+
+    private final double[] level(int depth) {
+        if (depth >= levels.length)
+            levels = Arrays.copyOf(levels, depth + 1);
+        if (levels[depth] == null)
+            levels[depth] = new double[capacity];
+        return levels[depth];
+    }
+}
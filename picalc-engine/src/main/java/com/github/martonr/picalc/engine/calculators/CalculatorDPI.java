@@ -3,7 +3,10 @@ package com.github.martonr.picalc.engine.calculators;
 import com.github.martonr.picalc.engine.generators.GeneratorCombination;
 import com.github.martonr.picalc.engine.generators.GeneratorCombinationRandom;
 import com.github.martonr.picalc.engine.generators.GeneratorNTuple;
-import com.github.martonr.picalc.engine.generators.GeneratorNTupleRandom;
+import com.github.martonr.picalc.engine.generators.GeneratorPermutationRandom;
+import com.github.martonr.picalc.engine.generators.GeneratorSubmultiset;
+import com.github.martonr.picalc.engine.random.PCGRandom;
+import java.util.random.RandomGenerator;
 
 public final class CalculatorDPI {
 
@@ -22,14 +25,48 @@ public final class CalculatorDPI {
 
     private final GeneratorCombinationRandom generatorRandom;
 
-    private final GeneratorNTupleRandom generatorScenarioRandom;
+    private final GeneratorPermutationRandom generatorPermutation;
+
+    private final GeneratorSubmultiset generatorClasses;
+
+    private final PCGRandom random;
+
+    private final PlayerClasses classes;
+
+    private final double[] classValues;
+
+    private final double[] convinced;
+
+    private final double[] excluded;
+
+    private final double[][] ratios;
+
+    // The players in the order they are drawn
+    private final int[] drawn;
+
+    private final long[] sizeBits;
 
     public CalculatorDPI(int n) {
+        this(n, new PCGRandom());
+    }
+
+    /**
+     * The estimations draw from the given random stream, so the caller can hand out streams
+     * split from one generator or reseed it. Other generators than PCGRandom seed a new PCG
+     * stream.
+     */
+    public CalculatorDPI(int n, RandomGenerator.SplittableGenerator random) {
+        this(n, PCGRandom.from(random));
+    }
+
+    private CalculatorDPI(int n, PCGRandom random) {
         // The N-tuple generation goes through (n - k)^k from k=(0 to n) number of
         // possible tuples
         // This can get huge pretty fast, with 20 players, a 7 sized coalition with 13
         // opponents
         // has 7^13 possible tuples, 96,889,010,407, more than a 32-bit can hold...
+        // The exact calculation sums up the tuples of a coalition in closed form,
+        // only the estimation draws tuples
 
         // The complement array is determined via bit counting with shifts,
         // so >64 players have to be handled differently if needed
@@ -42,8 +79,17 @@ public final class CalculatorDPI {
         this.helper = new int[n];
         this.generator = new GeneratorCombination(n);
         this.generatorScenario = new GeneratorNTuple(n);
-        this.generatorRandom = new GeneratorCombinationRandom(n);
-        this.generatorScenarioRandom = new GeneratorNTupleRandom(n);
+        this.generatorRandom = new GeneratorCombinationRandom(n, random);
+        this.generatorPermutation = new GeneratorPermutationRandom(n, random);
+        this.random = random;
+        this.generatorClasses = new GeneratorSubmultiset(n);
+        this.classes = new PlayerClasses(n);
+        this.classValues = new double[n];
+        this.convinced = new double[n];
+        this.excluded = new double[n];
+        this.ratios = new double[n][n];
+        this.drawn = new int[n];
+        this.sizeBits = new long[(n + 63) >>> 6];
     }
 
     public static final void normalizeDPI(double[] values) {
@@ -60,6 +106,48 @@ public final class CalculatorDPI {
     }
 
     public final void calculate(CalculatorParameters params, double[] results) {
+        classes.group(params.weights);
+
+        // Players with equal weights are interchangeable, going through the number of players
+        // taken from each class is cheaper if there are enough of them
+        // A coalition costs about k * (n - k) steps, a class case about m^2 steps and m powers
+        int m = classes.m;
+        double players = Math.pow(2, n) * (n * n / 4.0 + n);
+        double grouped = (double) classes.count() * (m * m + 20.0 * m);
+        if (grouped < players) {
+            calculateClasses(params, results);
+        } else {
+            calculatePlayers(params, results);
+        }
+    }
+
+    final void calculatePlayers(CalculatorParameters params, double[] results) {
+        int[] combination;
+
+        System.arraycopy(zeros, 0, results, 0, n);
+
+        setRatios(params.weights);
+
+        // For every possible coalition combination of players
+        while (generator.hasNext) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            combination = generator.next();
+            addCoalition(combination, generator.m, results);
+        }
+
+        this.generator.reset();
+
+        // This is like the Banzhaf normalization
+        double s = 0;
+        for (int i = 0; i < n; ++i)
+            s += results[i];
+
+        for (int i = 0; i < n; ++i)
+            results[i] /= s;
+    }
+
+    final void calculateScenarios(CalculatorParameters params, double[] results) {
         int combinationSize, complementSize;
         int[] combination, scenario;
         double[] weights = params.weights;
@@ -166,93 +254,278 @@ public final class CalculatorDPI {
         // Normalize with all counts ?
     }
 
-    public final void calculateMC(CalculatorParameters params, double[] results, long mc) {
-        int combinationSize, complementSize;
-        int[] combination, scenario;
-        double[] weights = params.weights;
+    final void calculateClasses(CalculatorParameters params, double[] results) {
+        int k, o;
+        int[] counts;
+        double ways, share, r, denominator;
+        double[] ratio;
 
-        // Divide the simulation between combination and complement MC draws
-        // long count = ((long) Math.sqrt(mc)) * n;
-        // long countScenario = ((long) (count / (n * n)));
-        long count = (long) Math.sqrt(mc);
-        long countScenario = count;
+        classes.group(params.weights);
 
-        double coalition, denominator, w;
+        int m = classes.m;
+        int[] sizes = classes.sizes;
+        double[] weights = classes.weights;
+        double[][] binomial = classes.binomial;
 
-        System.arraycopy(zeros, 0, results, 0, n);
+        System.arraycopy(zeros, 0, classValues, 0, m);
 
-        // For every possible coalition combination of players
-        for (long k = 0; k < count; ++k) {
-            combination = generatorRandom.next();
+        // The A / (A + B) ratios of every pair of classes, the denominator is 1 if both are 0
+        for (int a = 0; a < m; ++a) {
+            ratio = ratios[a];
+            for (int b = 0; b < m; ++b) {
+                denominator = weights[a] + weights[b];
+                ratio[b] = weights[a] / ((denominator == 0) ? 1 : denominator);
+            }
+        }
 
-            // Determine the opposition size
-            combinationSize = generatorRandom.m;
-            complementSize = n - combinationSize;
+        // For every coalition, given by the number of players taken from each class
+        generatorClasses.initialize(sizes, m);
+        while (generatorClasses.hasNext) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            counts = generatorClasses.next();
+            ways = 1;
+
+            for (int b = 0; b < m; ++b)
+                ways *= binomial[sizes[b]][counts[b]];
+
+            // The sum over all scenarios is a product over the opponents, like with the players,
+            // an opponent of class b adds up to R_b = sum of k_a * A / (A + B) over the members
+            // The o_b opponents of class b give R_b^o_b, one of them left out gives R_b^(o_b - 1)
+            for (int b = 0; b < m; ++b) {
+                o = sizes[b] - counts[b];
+                if (o == 0) {
+                    convinced[b] = 1;
+                    excluded[b] = 0;
+                    continue;
+                }
 
-            System.arraycopy(ones, 0, helper, 0, n);
-            for (int i = 0; i < combinationSize; ++i)
-                helper[combination[i]] = 0;
+                r = 0;
+                for (int a = 0; a < m; ++a)
+                    r += counts[a] * ratios[a][b];
 
-            int t = 0, s;
-            for (int i = 0; i < n; ++i) {
-                s = helper[i];
-                complement[t] = i * s;
-                t += s;
+                excluded[b] = (o == 1) ? 1 : Math.pow(r, o - 1);
+                convinced[b] = excluded[b] * r;
             }
 
-            // // Find the complement combination
-            // long cmp = 0;
-            // // Flip bits for each participant
-            // for (int i = 0; i < combinationSize; ++i)
-            // cmp |= (1 << combination[i]);
+            // The products over the other classes, from the front, then from the back
+            r = 1;
+            for (int b = 0; b < m; ++b) {
+                excluded[b] *= r;
+                r *= convinced[b];
+            }
+            r = 1;
+            for (int b = m - 1; b >= 0; --b) {
+                excluded[b] *= r;
+                r *= convinced[b];
+            }
 
-            // // Negate all bits
-            // cmp = ~cmp;
+            // Every member gets A / (A + O) * (product of R over the other opponents)
+            // for every opponent O
+            for (int a = 0; a < m; ++a) {
+                k = counts[a];
+                if (k == 0)
+                    continue;
+                ratio = ratios[a];
+                share = 0;
 
-            // // Test the bits and record players
-            // int t = 0, s;
-            // for (int i = 0; i < n; ++i) {
-            // s = (int) (cmp & 1);
-            // complement[t] = i * s;
-            // t += s;
-            // cmp >>>= 1;
-            // }
+                for (int b = 0; b < m; ++b)
+                    share += (sizes[b] - counts[b]) * ratio[b] * excluded[b];
 
-            // For all possible "convincing" scenarios
-            // Ex. for an AB - CDE player situation:
-            // AAA, AAB, ABA, BAA, ABB, BBA, BBB, BAB
-            // These are scenarios that could happen based on who "convinces" who
-            generatorScenarioRandom.initialize(complementSize, combinationSize);
+                // k / c of the coalitions contain a given player of the class
+                classValues[a] += ways * share * k / sizes[a];
+            }
+        }
 
-            for (long j = 0; j < countScenario; ++j) {
-                if (Thread.currentThread().isInterrupted())
-                    return;
-                scenario = generatorScenarioRandom.next();
-                coalition = 1;
+        // Same normalization as with the players
+        double s = 0;
+        for (int b = 0; b < m; ++b)
+            s += classValues[b] * sizes[b];
 
-                // DPI if two players:
-                // A / (A + B) where A is in coalition, B is an opponent
-                for (int i = 0; i < complementSize; ++i) {
-                    w = weights[combination[scenario[i]]];
-                    denominator = w + weights[complement[i]];
-                    if (denominator == 0)
-                        denominator = 1;
-                    coalition *= (w / denominator);
+        for (int b = 0; b < m; ++b)
+            classValues[b] /= s;
+
+        classes.expand(classValues, results);
+    }
+
+    /**
+     * Estimates the DPI values from random coalitions. Every coalition is equally likely, and
+     * adds the sum over all of its convincing scenarios in closed form like calculatePlayers, so
+     * normalizing the sums gives the exact values in the limit, the same as the estimation of
+     * the three indices together.
+     *
+     * @param params the parameters, the quasi-random flag draws the coalitions from a scrambled
+     *        Halton sequence
+     * @param results the DPI sums, normalized with normalizeDPI
+     * @param mc the number of coalitions
+     */
+    public final void calculateMC(CalculatorParameters params, double[] results, long mc) {
+        int[] combination;
+
+        System.arraycopy(zeros, 0, results, 0, n);
+
+        setRatios(params.weights);
+        generatorRandom.quasiRandom(params.quasiRandom, mc);
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            combination = generatorRandom.next();
+            addCoalition(combination, generatorRandom.m, results);
+        }
+
+        // Calculate final index values outside
+    }
+
+    /**
+     * Estimates the Shapley-Shubik, Banzhaf and DPI values from the same samples, for the DPI
+     * simulations that need all three.
+     *
+     * @param params the parameters, the Shapley-Shubik and Banzhaf values use the votes and the
+     *        quota, the DPI uses the weights
+     * @param shapley the pivot counts, normalized with CalculatorShapley.normalizeSS
+     * @param banzhaf the critical counts, normalized with CalculatorBanzhaf.normalizeBF
+     * @param results the DPI sums, normalized with normalizeDPI
+     * @param mc the number of samples
+     */
+    public final void calculateMC(CalculatorParameters params, double[] shapley,
+            double[] banzhaf, double[] results, long mc) {
+        // Every sample is one random permutation and a binomial size
+        // The player reaching the quota is pivotal, and the first players of the permutation up
+        // to the size are a random coalition, every coalition is equally likely
+        // The coalition gives the critical players and, in closed form like calculatePlayers,
+        // the DPI sum over all of its convincing scenarios, so no scenario is drawn
+        int size, sum, total, player, k;
+        int quota = params.quota;
+        int[] votes = params.votes;
+        boolean found;
+
+        System.arraycopy(zeros, 0, shapley, 0, n);
+        System.arraycopy(zeros, 0, banzhaf, 0, n);
+        System.arraycopy(zeros, 0, results, 0, n);
+
+        setRatios(params.weights);
+
+        generatorPermutation.initialize();
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            generatorPermutation.reset();
+
+            // The number of set bits of n random bits is binomial
+            random.nextBits(sizeBits, n);
+            size = 0;
+            for (int w = 0; w < sizeBits.length; ++w)
+                size += Long.bitCount(sizeBits[w]);
+
+            // The permutation is only drawn up to the pivotal player or the coalition size,
+            // whichever comes later
+            sum = 0;
+            total = 0;
+            found = false;
+            for (k = 0; k < n; ++k) {
+                if (k == size) {
+                    total = sum;
+                    if (found)
+                        break;
                 }
 
-                // For now just add the final coalition "success" chance to each player
-                // for (int i = 1; i <= combinationSize; ++i) dpi[combination[i]] += coalition;
+                player = generatorPermutation.nextElement();
+                drawn[k] = player;
+                sum += votes[player];
 
-                // 2nd version, add the success chance only to the LAST player in the scenario
-                // dpi[combination[scenario[complementSize - 1] + 1]] += coalition;
+                if (!found && sum >= quota) {
+                    shapley[player] += 1;
+                    found = true;
+                    if (k >= size)
+                        break;
+                }
+            }
 
-                // 3rd version add it to every scenario member
-                // kind of representing the "work" they completed convincing opponents
-                for (int i = 0; i < complementSize; ++i) {
-                    results[combination[scenario[i]]] += coalition;
+            if (size == n)
+                total = sum;
+
+            if (total >= quota) {
+                for (int i = 0; i < size; ++i) {
+                    player = drawn[i];
+                    if (total - votes[player] < quota)
+                        banzhaf[player] += 1;
                 }
             }
+
+            addCoalition(drawn, size, results);
         }
+
         // Calculate final index values outside
     }
+
+    private final void setRatios(double[] weights) {
+        // The A / (A + B) ratios of every pair, the denominator is 1 if both are 0
+        double[] ratio;
+        double share;
+        for (int a = 0; a < n; ++a) {
+            ratio = ratios[a];
+            for (int b = 0; b < n; ++b) {
+                share = weights[a] + weights[b];
+                ratio[b] = weights[a] / ((share == 0) ? 1 : share);
+            }
+        }
+    }
+
+    private final void addCoalition(int[] combination, int combinationSize, double[] results) {
+        int complementSize = n - combinationSize, member;
+        double[] ratio;
+        double share, product;
+
+        if (combinationSize == 0 || complementSize == 0)
+            return;
+
+        System.arraycopy(ones, 0, helper, 0, n);
+        for (int i = 0; i < combinationSize; ++i)
+            helper[combination[i]] = 0;
+
+        int t = 0, s;
+        for (int i = 0; i < n; ++i) {
+            s = helper[i];
+            complement[t] = i * s;
+            t += s;
+        }
+
+        // The chance of a "convincing" scenario is the product of A / (A + B) over the
+        // opponents, and every opponent chooses the convincing member independently
+        // So the sum over the scenarios factorizes, opponent B adds up to
+        // R_B = sum of A / (A + B) over the members
+        for (int j = 0; j < complementSize; ++j) {
+            product = 0;
+            for (int i = 0; i < combinationSize; ++i)
+                product += ratios[combination[i]][complement[j]];
+            convinced[j] = product;
+        }
+
+        // The products of R over all opponents but one, without dividing (R can be 0)
+        // The running product from the front, then from the back
+        product = 1;
+        for (int j = 0; j < complementSize; ++j) {
+            excluded[j] = product;
+            product *= convinced[j];
+        }
+        product = 1;
+        for (int j = complementSize - 1; j >= 0; --j) {
+            excluded[j] *= product;
+            product *= convinced[j];
+        }
+
+        // The 3rd version adds the chance of the scenario to a member for every opponent they
+        // convince, summed over the scenarios this is A / (A + B) * (product of R without B)
+        // for every opponent B
+        for (int i = 0; i < combinationSize; ++i) {
+            member = combination[i];
+            ratio = ratios[member];
+            share = 0;
+            for (int j = 0; j < complementSize; ++j)
+                share += ratio[complement[j]] * excluded[j];
+            results[member] += share;
+        }
+    }
 }
@@ -4,6 +4,18 @@ public final class CalculatorParameters {
     public double[] weights;
     public int[] votes;
     public long monteCarloCount;
+    // If not 0, the estimations are reproducible with this seed
+    public long seed;
+    // If greater than 0, the estimations stop when every index value is within this distance of
+    // the true value at the confidence level, the Monte-Carlo count is the most samples to take
+    public double precision;
+    public double confidence = 0.95;
+    // If true, the Shapley-Shubik and Banzhaf estimations count every player that would be
+    // pivotal or critical in a sample, not just the ones that are
+    public boolean conditional;
+    // If true, the estimations draw their samples from a scrambled Halton sequence, which spreads
+    // them more evenly than independent random numbers
+    public boolean quasiRandom;
     public int quota;
     public int n;
 }
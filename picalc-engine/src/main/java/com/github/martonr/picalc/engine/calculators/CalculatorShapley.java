@@ -2,6 +2,9 @@ package com.github.martonr.picalc.engine.calculators;
 
 import com.github.martonr.picalc.engine.generators.GeneratorPermutation;
 import com.github.martonr.picalc.engine.generators.GeneratorPermutationRandom;
+import com.github.martonr.picalc.engine.generators.GeneratorSubmultiset;
+import com.github.martonr.picalc.engine.random.PCGRandom;
+import java.util.random.RandomGenerator;
 
 public final class CalculatorShapley {
 
@@ -18,11 +21,47 @@ public final class CalculatorShapley {
 
     private final GeneratorPermutationRandom generatorRandom;
 
+    private final GeneratorSubmultiset generatorClasses;
+
+    private final PlayerClasses classes;
+
+    private final double[] classValues;
+
+    private final long[] pivots;
+
+    private final int[] byVotes;
+
+    private final int[] outside;
+
+    private final double[] credit;
+
+    private int[] order = new int[2];
+
     public CalculatorShapley(int n) {
+        this(n, new PCGRandom());
+    }
+
+    /**
+     * The estimations draw from the given random stream, so the caller can hand out streams
+     * split from one generator or reseed it. Other generators than PCGRandom seed a new PCG
+     * stream.
+     */
+    public CalculatorShapley(int n, RandomGenerator.SplittableGenerator random) {
+        this(n, PCGRandom.from(random));
+    }
+
+    private CalculatorShapley(int n, PCGRandom random) {
         this.n = n;
         this.zeros = new double[n];
         this.generator = new GeneratorPermutation(n);
-        this.generatorRandom = new GeneratorPermutationRandom(n);
+        this.generatorRandom = new GeneratorPermutationRandom(n, random);
+        this.generatorClasses = new GeneratorSubmultiset(n);
+        this.classes = new PlayerClasses(n);
+        this.classValues = new double[n];
+        this.pivots = new long[n];
+        this.byVotes = new int[n];
+        this.outside = new int[n];
+        this.credit = new double[n];
     }
 
     public static final void normalizeSS(double[] values, long emc) {
@@ -30,7 +69,65 @@ public final class CalculatorShapley {
             values[i] /= emc;
     }
 
+    /**
+     * The number of permutations, the pivot counts of calculateRange are normalized with it.
+     *
+     * @param n the player count, at most 20
+     * @return n!
+     */
+    public static final long permutationCount(int n) {
+        return FACTORIAL[n];
+    }
+
+    /**
+     * The number of cases the calculation goes through when the players are grouped into classes
+     * of equal votes, the ranges of calculateRange go from 0 to this value.
+     *
+     * @param votes the votes of the players
+     * @return The number of sets of players before the pivotal player, given by the number of
+     *         players taken from each class
+     */
+    public final long classCount(int[] votes) {
+        classes.group(votes);
+        return classes.count();
+    }
+
     public final void calculate(CalculatorParameters params, double[] results) {
+        classes.group(params.votes);
+
+        // Players with equal votes are interchangeable, going through the number of players
+        // taken from each class is cheaper if there are enough of them
+        long count = classes.count();
+        if (n >= FACTORIAL.length || count < FACTORIAL[n] / classes.m) {
+            calculateClasses(params, results);
+        } else {
+            calculatePlayers(params, results);
+        }
+    }
+
+    /**
+     * Counts the permutations where each player is pivotal, for the sets of players before the
+     * pivotal player with a rank in [from, to). The counts are whole numbers, so the counts of
+     * consecutive ranges added up in any order, then divided by permutationCount give exactly the
+     * same index as a single calculation.
+     *
+     * @param params the parameters, at most 20 players
+     * @param from the start of the range
+     * @param to the end of the range, exclusive
+     * @param results the pivot counts
+     */
+    public final void calculateRange(CalculatorParameters params, long from, long to,
+            double[] results) {
+        if (!countPivots(params, from, to))
+            return;
+
+        for (int b = 0; b < classes.m; ++b)
+            classValues[b] = pivots[b];
+
+        classes.expand(classValues, results);
+    }
+
+    final void calculatePlayers(CalculatorParameters params, double[] results) {
         int sum, player, quota = params.quota;
         int[] votes = params.votes, permutation;
 
@@ -62,22 +159,209 @@ public final class CalculatorShapley {
             results[i] /= FACTORIAL[n];
     }
 
+    final void calculateClasses(CalculatorParameters params, double[] results) {
+        // The permutations can be counted exactly up to 20 players
+        if (n < FACTORIAL.length) {
+            if (!countPivots(params, 0, classCount(params.votes)))
+                return;
+
+            for (int b = 0; b < classes.m; ++b)
+                classValues[b] = (double) pivots[b] / FACTORIAL[n];
+
+            classes.expand(classValues, results);
+            return;
+        }
+
+        int sum, size, k, quota = params.quota;
+        int[] counts;
+        double ways;
+
+        classes.group(params.votes);
+
+        int m = classes.m;
+        int[] sizes = classes.sizes, votes = classes.votes;
+        double[][] binomial = classes.binomial;
+
+        System.arraycopy(zeros, 0, classValues, 0, m);
+
+        // For every set of players before the pivotal player, given by the number of players
+        // taken from each class
+        generatorClasses.initialize(sizes, m);
+        while (generatorClasses.hasNext) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            counts = generatorClasses.next();
+            sum = 0;
+            size = 0;
+            ways = 1;
+
+            for (int b = 0; b < m; ++b) {
+                k = counts[b];
+                sum += k * votes[b];
+                size += k;
+                ways *= binomial[sizes[b]][k];
+            }
+
+            // Nobody is pivotal after a set that already reaches the quota
+            if (sum >= quota || size == n)
+                continue;
+
+            // A given set of s players is before a given player in s! * (n - 1 - s)!
+            // permutations out of n!, that is 1 / (n * C(n - 1, s))
+            ways /= binomial[n - 1][size];
+
+            // A player of a class is pivotal if they are not in the set and their votes reach the
+            // quota, (c - k) / c of the sets are made of the other players for a given player
+            for (int b = 0; b < m; ++b) {
+                k = counts[b];
+                if (k < sizes[b] && sum + votes[b] >= quota)
+                    classValues[b] += ways * (sizes[b] - k) / sizes[b];
+            }
+        }
+
+        for (int b = 0; b < m; ++b)
+            classValues[b] /= n;
+
+        classes.expand(classValues, results);
+    }
+
+    private final boolean countPivots(CalculatorParameters params, long from, long to) {
+        int sum, size, k, quota = params.quota;
+        int[] counts;
+        long ways, orders;
+
+        classes.group(params.votes);
+
+        int m = classes.m;
+        int[] sizes = classes.sizes, votes = classes.votes;
+        double[][] binomial = classes.binomial;
+
+        for (int b = 0; b < m; ++b)
+            pivots[b] = 0;
+
+        // For every set of players before the pivotal player, given by the number of players
+        // taken from each class
+        generatorClasses.initialize(sizes, m, from, to);
+        while (generatorClasses.hasNext) {
+            if (Thread.currentThread().isInterrupted())
+                return false;
+            counts = generatorClasses.next();
+            sum = 0;
+            size = 0;
+            ways = 1;
+
+            // The binomials are exact as doubles up to 20 players
+            for (int b = 0; b < m; ++b) {
+                k = counts[b];
+                sum += k * votes[b];
+                size += k;
+                ways *= (long) binomial[sizes[b]][k];
+            }
+
+            // Nobody is pivotal after a set that already reaches the quota
+            if (sum >= quota || size == n)
+                continue;
+
+            // A given set of s players is before a given player in s! * (n - 1 - s)! permutations
+            orders = FACTORIAL[size] * FACTORIAL[n - 1 - size];
+
+            // A player of a class is pivotal if they are not in the set and their votes reach the
+            // quota, C(c - 1, k) * (the other binomials) of the sets are made of the other players
+            for (int b = 0; b < m; ++b) {
+                k = counts[b];
+                if (k < sizes[b] && sum + votes[b] >= quota)
+                    pivots[b] += ways * (sizes[b] - k) / sizes[b] * orders;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Calculates the Shapley-Shubik index for several quotas with a single pass through the
+     * permutations. The pivotal player of every quota is recorded while adding up the votes.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param quotas the quotas to calculate the index for
+     * @param results the index values for each quota, in the order of the quotas
+     */
+    public final void calculate(CalculatorParameters params, int[] quotas, double[][] results) {
+        int sum, player, next, count = quotas.length;
+        int[] votes = params.votes, permutation, order = sortQuotas(quotas);
+
+        for (int j = 0; j < count; ++j)
+            System.arraycopy(zeros, 0, results[j], 0, n);
+
+        while (generator.hasNext) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            permutation = generator.next();
+            sum = 0;
+            next = 0;
+
+            // For each permutation of the players add up the votes
+            // The quotas are reached from the smallest to the largest,
+            // the player whose votes reach a quota is critical for it
+            for (int i = 0; i < n && next < count; ++i) {
+                player = permutation[i];
+                sum += votes[player];
+
+                while (next < count && sum >= quotas[order[next]]) {
+                    results[order[next]][player] += 1;
+                    next++;
+                }
+            }
+        }
+
+        this.generator.reset();
+
+        // Divide the critical count by the number of permutations
+        for (int j = 0; j < count; ++j)
+            for (int i = 0; i < n; ++i)
+                results[j][i] /= FACTORIAL[n];
+    }
+
+    private final int[] sortQuotas(int[] quotas) {
+        int count = quotas.length;
+        if (order.length < count)
+            order = new int[count];
+
+        // Insertion sort of the quota indices, there are only a few quotas
+        int index, j;
+        for (int i = 0; i < count; ++i) {
+            index = i;
+            for (j = i; j > 0 && quotas[order[j - 1]] > quotas[index]; --j)
+                order[j] = order[j - 1];
+            order[j] = index;
+        }
+
+        return order;
+    }
+
     public final void calculateMC(CalculatorParameters params, double[] results, long mc) {
+        generatorRandom.quasiRandom(params.quasiRandom, mc);
+        if (params.conditional) {
+            calculateConditional(params, results, mc);
+            return;
+        }
+
         int sum, player, quota = params.quota;
-        int[] votes = params.votes, permutation;
+        int[] votes = params.votes;
 
         System.arraycopy(zeros, 0, results, 0, n);
+        generatorRandom.initialize();
 
         for (long j = 0; j < mc; ++j) {
             if (Thread.currentThread().isInterrupted())
                 return;
-            permutation = generatorRandom.next();
+            generatorRandom.reset();
             sum = 0;
 
             // For each permutation of the players add up the votes
             // If a player's votes increases the total above the quota, player is critical
+            // The permutation is only drawn up to the pivotal player
             for (int i = 0; i < n; ++i) {
-                player = permutation[i];
+                player = generatorRandom.nextElement();
                 sum += votes[player];
 
                 if (sum >= quota) {
@@ -89,4 +373,229 @@ public final class CalculatorShapley {
 
         // Calculate final index values outside
     }
+
+    final void calculateConditional(CalculatorParameters params, double[] results, long mc) {
+        // A permutation is a random set of k players before position k for every k at once
+        // The player at position k is a random one of the n - k others, so instead of counting
+        // the one that comes, every other player that would be pivotal there counts 1 / (n - k)
+        // The expected counts are the same, but a small player gets counted in every permutation
+        // that gets close enough to the quota, not only in the few where it comes at the right
+        // position
+        // Players with equal votes are interchangeable, they are counted together
+        int sum, player, b, t, threshold, quota = params.quota;
+        int[] votes = classes.votes, sizes = classes.sizes, classOf = classes.classOf;
+        double share;
+
+        classes.group(params.votes);
+        classes.sortByVotes(byVotes);
+        int m = classes.m, max = (m > 0) ? votes[byVotes[0]] : 0;
+
+        for (b = 0; b < m; ++b)
+            credit[b] = 0;
+        generatorRandom.initialize();
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            generatorRandom.reset();
+            System.arraycopy(sizes, 0, outside, 0, m);
+            sum = 0;
+
+            for (int k = 0; k < n; ++k) {
+                // The classes with enough votes to reach the quota
+                if (sum >= quota - max) {
+                    share = 1.0 / (n - k);
+                    threshold = quota - sum;
+                    for (t = 0; t < m; ++t) {
+                        b = byVotes[t];
+                        if (votes[b] < threshold)
+                            break;
+                        credit[b] += outside[b] * share;
+                    }
+                }
+
+                player = generatorRandom.nextElement();
+                outside[classOf[player]]--;
+                sum += params.votes[player];
+
+                if (sum >= quota)
+                    break;
+            }
+        }
+
+        // The class counts are shared by its players
+        for (int i = 0; i < n; ++i)
+            results[i] = credit[classOf[i]] / sizes[classOf[i]];
+
+        // Calculate final index values outside
+    }
+
+    /**
+     * Estimates the Shapley-Shubik index for several quotas from the same permutations. The
+     * estimates are coupled, so their differences are much less noisy than the differences of
+     * separate estimates, and every permutation is only drawn once.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param quotas the quotas to estimate the index for
+     * @param results the pivot counts for each quota, in the order of the quotas
+     * @param mc the number of samples
+     */
+    public final void calculateMC(CalculatorParameters params, int[] quotas, double[][] results,
+            long mc) {
+        generatorRandom.quasiRandom(params.quasiRandom, mc);
+        if (params.conditional) {
+            calculateConditional(params, quotas, results, mc);
+            return;
+        }
+
+        int sum, player, next, count = quotas.length;
+        int[] votes = params.votes, order = sortQuotas(quotas);
+
+        for (int q = 0; q < count; ++q)
+            System.arraycopy(zeros, 0, results[q], 0, n);
+        generatorRandom.initialize();
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            generatorRandom.reset();
+            sum = 0;
+            next = 0;
+
+            // The quotas are reached from the smallest to the largest,
+            // the permutation is only drawn up to the pivotal player of the largest
+            for (int i = 0; i < n && next < count; ++i) {
+                player = generatorRandom.nextElement();
+                sum += votes[player];
+
+                while (next < count && sum >= quotas[order[next]]) {
+                    results[order[next]][player] += 1;
+                    next++;
+                }
+            }
+        }
+
+        // Calculate final index values outside
+    }
+
+    final void calculateConditional(CalculatorParameters params, int[] quotas,
+            double[][] results, long mc) {
+        // The same credits as for one quota, every quota that is not reached yet gets its own
+        int sum, player, next, b, t, q, threshold, count = quotas.length;
+        int[] votes = classes.votes, sizes = classes.sizes, classOf = classes.classOf;
+        int[] order = sortQuotas(quotas);
+        double share;
+        double[] values;
+
+        classes.group(params.votes);
+        classes.sortByVotes(byVotes);
+        int m = classes.m, max = (m > 0) ? votes[byVotes[0]] : 0;
+
+        // The class credits are kept at the start of the results until the end
+        for (q = 0; q < count; ++q)
+            System.arraycopy(zeros, 0, results[q], 0, n);
+        generatorRandom.initialize();
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            generatorRandom.reset();
+            System.arraycopy(sizes, 0, outside, 0, m);
+            sum = 0;
+            next = 0;
+
+            for (int k = 0; k < n && next < count; ++k) {
+                share = 1.0 / (n - k);
+                for (q = next; q < count; ++q) {
+                    // The larger quotas are even further away
+                    threshold = quotas[order[q]] - sum;
+                    if (threshold > max)
+                        break;
+
+                    values = results[order[q]];
+                    for (t = 0; t < m; ++t) {
+                        b = byVotes[t];
+                        if (votes[b] < threshold)
+                            break;
+                        values[b] += outside[b] * share;
+                    }
+                }
+
+                player = generatorRandom.nextElement();
+                outside[classOf[player]]--;
+                sum += params.votes[player];
+
+                while (next < count && sum >= quotas[order[next]])
+                    next++;
+            }
+        }
+
+        // The class counts are shared by its players
+        for (q = 0; q < count; ++q) {
+            values = results[q];
+            System.arraycopy(values, 0, credit, 0, m);
+            for (int i = 0; i < n; ++i)
+                values[i] = credit[classOf[i]] / sizes[classOf[i]];
+        }
+
+        // Calculate final index values outside
+    }
+
+    /**
+     * Estimates the value of one player for several quotas from the same permutations.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param player the player
+     * @param quotas the quotas to estimate the index for
+     * @param results the Shapley-Shubik index of the player for each quota, in the order of the
+     *        quotas
+     * @param mc the number of samples
+     */
+    public final void calculateMC(CalculatorParameters params, int player, int[] quotas,
+            double[] results, long mc) {
+        // The value is the average over the positions k of the probability that the player is
+        // pivotal after a random set of k others
+        // A permutation of the others gives a random set for every position at once, the
+        // positions after the quota is reached do not count
+        // The others are drawn from a permutation of every player, leaving out the player
+        int sum, k, t, other, next, count = quotas.length, vote = params.votes[player];
+        int[] votes = params.votes, order = sortQuotas(quotas);
+
+        for (t = 0; t < count; ++t)
+            results[t] = 0;
+
+        generatorRandom.quasiRandom(params.quasiRandom, mc);
+        generatorRandom.initialize();
+
+        for (long j = 0; j < mc; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            generatorRandom.reset();
+            sum = 0;
+            next = 0;
+
+            for (k = 0;; ++k) {
+                // The quotas reached by the others alone are done
+                while (next < count && sum >= quotas[order[next]])
+                    next++;
+                if (next == count)
+                    break;
+
+                // The player is pivotal for the smallest quotas that are not reached yet
+                for (t = next; t < count && sum >= quotas[order[t]] - vote; ++t)
+                    results[order[t]] += 1;
+
+                if (k == n - 1)
+                    break;
+
+                do {
+                    other = generatorRandom.nextElement();
+                } while (other == player);
+                sum += votes[other];
+            }
+        }
+
+        for (t = 0; t < count; ++t)
+            results[t] = results[t] / mc / n;
+    }
 }
@@ -0,0 +1,329 @@
+package com.github.martonr.picalc.engine.calculators;
+
+/**
+ * Exact Shapley-Shubik index calculation with a dynamic program over the combination size and
+ * vote total.
+ *
+ * A player is pivotal in a permutation if the players before them have a vote total in [quota -
+ * votes, quota - 1]. If s players are before them, every s sized combination of the other players
+ * is equally likely, and every position is equally likely, so the index is the average over s of
+ * the chance that a random s sized combination of the other players falls into that window.
+ *
+ * The table holds these chances (not counts) for every combination size and vote total, this way
+ * there is no overflow or underflow even with thousands of players. The chances for the other
+ * players are found by removing the player from the table of all players. Only the sizes up to
+ * half of the players are kept, the larger sizes are the complements of these (a combination of
+ * size s and total w is the complement of a size (n - 1 - s) combination with the remaining
+ * votes). Removing a player is numerically stable for these sizes.
+ *
+ * The cost is O(n^2 * W), where W is the larger of the quota and the votes above the quota. The
+ * table does not depend on the quota, so any number of quotas can be read from the same table.
+ */
+public final class CalculatorShapleyDP {
+
+    private final int n;
+
+    private final int rows;
+
+    private final int[] quota = new int[1];
+
+    private final double[][] single = new double[1][];
+
+    private final double[] value = new double[1];
+
+    private double[] values = new double[2];
+
+    private double[][] table;
+
+    private double[] helperA;
+    private double[] helperB;
+
+    private double[] prefix;
+
+    // The vote total and the table width of the last build
+    private int sum;
+    private int width;
+
+    public CalculatorShapleyDP(int n, int votes) {
+        // The votes value is the expected total vote count of the players
+        // The arrays grow later if a larger total shows up
+        this.n = n;
+        this.rows = (n - 1) / 2 + 1;
+        allocate(votes / 2 + 1);
+    }
+
+    /**
+     * Estimates the cost of the dynamic program in basic operations.
+     *
+     * @param n the player count
+     * @param quota the quota used in the calculation
+     * @param votes the total vote count of the players
+     * @return The estimated cost
+     */
+    public static final long cost(int n, int quota, int votes) {
+        long width = quota >= (votes - quota + 1) ? quota : (votes - quota + 1);
+        // Building the table, then removing every player from it
+        return (((long) n + 1) / 2) * width * (n + 1);
+    }
+
+    /**
+     * Estimates if the dynamic program is cheaper than the exact enumeration. The enumeration
+     * goes through the number of players taken from each class of equal votes, see
+     * CalculatorShapley.classCount, and a case costs about one step per player.
+     *
+     * @param n the player count
+     * @param quota the quota used in the calculation
+     * @param votes the total vote count of the players
+     * @param cases the number of cases of the enumeration, 2^n if the votes are not known
+     * @return True if this calculator should be used for an exact calculation
+     */
+    public static final boolean isPreferred(int n, int quota, int votes, long cases) {
+        // cases * n can overflow a long, the cost is divided instead
+        if (n <= 0)
+            return false;
+        return cases > cost(n, quota, votes) / n;
+    }
+
+    private final void allocate(int width) {
+        this.table = new double[rows][width];
+        this.helperA = new double[width];
+        this.helperB = new double[width];
+        this.prefix = new double[width + 1];
+    }
+
+    public final void calculate(CalculatorParameters params, double[] results) {
+        quota[0] = params.quota;
+        single[0] = results;
+
+        calculate(params, quota, single);
+
+        single[0] = null;
+    }
+
+    /**
+     * Calculates the Shapley-Shubik index for several quotas with the same table. The table does
+     * not depend on the quota, so a full quota range costs about the same as a single quota.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param quotas the quotas to calculate the index for
+     * @param results the index values for each quota, in the order of the quotas
+     */
+    public final void calculate(CalculatorParameters params, int[] quotas, double[][] results) {
+        int[] votes = params.votes;
+        int v, t, count = quotas.length;
+
+        for (int j = 0; j < count; ++j)
+            for (int i = 0; i < n; ++i)
+                results[j][i] = 0;
+
+        if (!build(votes, quotas))
+            return;
+
+        if (values.length < count)
+            values = new double[count];
+
+        for (int i = 0; i < n; ++i) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            v = votes[i];
+            // Players without votes are never pivotal
+            if (v <= 0)
+                continue;
+
+            // Players with the same votes have the same index
+            t = 0;
+            while (votes[t] != v)
+                t++;
+            if (t < i) {
+                for (int j = 0; j < count; ++j)
+                    results[j][i] = results[j][t];
+                continue;
+            }
+
+            calculatePlayer(votes, i, quotas, values);
+            for (int j = 0; j < count; ++j)
+                results[j][i] = values[j];
+        }
+    }
+
+    /**
+     * Calculates the Shapley-Shubik index of one player. The table is built the same way, but
+     * only this player is removed from it.
+     *
+     * @param params the parameters
+     * @param player the player
+     * @return the index value of the player
+     */
+    public final double calculate(CalculatorParameters params, int player) {
+        quota[0] = params.quota;
+        calculate(params, player, quota, value);
+        return value[0];
+    }
+
+    /**
+     * Calculates the Shapley-Shubik index of one player for several quotas with the same table.
+     *
+     * @param params the parameters, the quota value is not used
+     * @param player the player
+     * @param quotas the quotas to calculate the index for
+     * @param results the index value of the player for each quota, in the order of the quotas
+     */
+    public final void calculate(CalculatorParameters params, int player, int[] quotas,
+            double[] results) {
+        for (int j = 0; j < quotas.length; ++j)
+            results[j] = 0;
+
+        if (params.votes[player] <= 0 || !build(params.votes, quotas))
+            return;
+
+        calculatePlayer(params.votes, player, quotas, results);
+    }
+
+    private final boolean build(int[] votes, int[] quotas) {
+        int v, q, count = quotas.length;
+
+        sum = 0;
+        for (int i = 0; i < n; ++i)
+            sum += votes[i];
+
+        // Vote totals needed for the small combinations and for the complements of the large ones
+        // Nobody can be pivotal if the quota is not in [1, sum]
+        width = 0;
+        for (int j = 0; j < count; ++j) {
+            q = quotas[j];
+            if (q < 1 || q > sum)
+                continue;
+            if (q > width)
+                width = q;
+            if (sum - q + 1 > width)
+                width = sum - q + 1;
+        }
+
+        if (width == 0)
+            return false;
+
+        if (width > helperA.length)
+            allocate(width);
+
+        double[][] c = this.table;
+        int top = rows - 1;
+
+        for (int k = 0; k <= top; ++k)
+            for (int w = 0; w < width; ++w)
+                c[k][w] = 0;
+        c[0][0] = 1;
+
+        // Add the players one by one
+        // c[k][w] is the chance that a random k sized combination of the added players has w votes
+        double a, b, N;
+        double[] row, previous;
+        int t;
+        for (int j = 0; j < n; ++j) {
+            if (Thread.currentThread().isInterrupted())
+                return false;
+            v = votes[j];
+            N = j + 1;
+            t = (j + 1) < top ? (j + 1) : top;
+
+            // Going backwards, so row k - 1 still has the values without this player
+            for (int k = t; k > 0; --k) {
+                a = (N - k) / N;
+                b = k / N;
+                row = c[k];
+                previous = c[k - 1];
+
+                for (int w = 0; w < v && w < width; ++w)
+                    row[w] = a * row[w];
+                for (int w = v; w < width; ++w)
+                    row[w] = a * row[w] + b * previous[w - v];
+            }
+        }
+
+        return true;
+    }
+
+    private final void calculatePlayer(int[] votes, int player, int[] quotas, double[] results) {
+        int q, count = quotas.length, v = votes[player], top = rows - 1;
+        double[][] c = this.table;
+        double[] row, current, previous, swap, p = this.prefix;
+        double a, b, total;
+        boolean direct, mirrored;
+
+        for (int j = 0; j < count; ++j)
+            results[j] = 0;
+
+        // The windows are at most v wide, summing them directly is cheaper than
+        // the running totals if there are only a few quotas
+        direct = 2L * count * v < width;
+
+        previous = helperA;
+        current = helperB;
+
+        for (int k = 0; k <= top; ++k) {
+            if (k == 0) {
+                System.arraycopy(c[0], 0, current, 0, width);
+            } else {
+                // Remove the player from the k sized combinations
+                // The chance of a k sized combination with w votes for all players is
+                // ((n - k) / n) * (without the player) + (k / n) * (with the player)
+                a = (double) n / (n - k);
+                b = (double) k / (n - k);
+                row = c[k];
+
+                for (int w = 0; w < v && w < width; ++w)
+                    current[w] = a * row[w];
+                for (int w = v; w < width; ++w)
+                    current[w] = a * row[w] - b * previous[w - v];
+            }
+
+            if (!direct) {
+                p[0] = 0;
+                for (int w = 0; w < width; ++w)
+                    p[w + 1] = p[w] + current[w];
+            }
+
+            // (n - 1 - k) players before the player, these are the complements of size k
+            mirrored = (n - 1 - k) > top;
+
+            for (int j = 0; j < count; ++j) {
+                q = quotas[j];
+                if (q < 1 || q > sum)
+                    continue;
+
+                // k players before the player
+                total = window(current, p, direct, q - v, q - 1);
+
+                // Complements of the combinations before the player
+                if (mirrored)
+                    total += window(current, p, direct, sum - v - q + 1, sum - q);
+
+                results[j] += total;
+            }
+
+            swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        // Every position is equally likely
+        // Rounding can leave tiny negative values when the chances cancel out
+        for (int j = 0; j < count; ++j)
+            results[j] = results[j] > 0 ? (results[j] / n) : 0;
+    }
+
+    private static final double window(double[] values, double[] prefix, boolean direct, int low,
+            int high) {
+        if (low < 0)
+            low = 0;
+        if (low > high)
+            return 0;
+
+        if (!direct)
+            return prefix[high + 1] - prefix[low];
+
+        double s = 0;
+        for (int w = low; w <= high; ++w)
+            s += values[w];
+        return s;
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.martonr.picalc.engine.calculators;
+
+import com.github.martonr.picalc.engine.generators.GeneratorSubmultiset;
+
+/**
+ * Groups the players into classes of equal votes or equal weights.
+ *
+ * Players of the same class are interchangeable, they have the same index value. A combination
+ * that takes k players out of a class of c players stands for C(c, k) combinations of players, so
+ * the calculators only have to go through how many players are taken from each class, which is
+ * (c_1 + 1) * ... * (c_m + 1) cases instead of 2^n.
+ */
+final class PlayerClasses {
+
+    private final int n;
+
+    // The class of each player
+    final int[] classOf;
+
+    // The number of players in each class
+    final int[] sizes;
+
+    // The votes of the players in each class
+    final int[] votes;
+
+    // The weights of the players in each class
+    final double[] weights;
+
+    // The binomial coefficients C(i, j) up to the player count
+    final double[][] binomial;
+
+    // The number of classes
+    int m;
+
+    PlayerClasses(int n) {
+        this.n = n;
+        this.classOf = new int[n];
+        this.sizes = new int[n];
+        this.votes = new int[n];
+        this.weights = new double[n];
+
+        // Pascal's triangle, doubles are exact up to 2^53 and do not overflow for large n
+        this.binomial = new double[n + 1][];
+        for (int i = 0; i <= n; ++i) {
+            binomial[i] = new double[i + 1];
+            binomial[i][0] = 1;
+            binomial[i][i] = 1;
+            for (int j = 1; j < i; ++j)
+                binomial[i][j] = binomial[i - 1][j - 1] + binomial[i - 1][j];
+        }
+    }
+
+    /**
+     * Groups the players by their votes.
+     *
+     * @param votes the votes of the players
+     */
+    final void group(int[] votes) {
+        int b, v;
+        m = 0;
+        for (int i = 0; i < n; ++i) {
+            v = votes[i];
+            // There are only a few classes, a linear search is enough
+            for (b = 0; b < m; ++b)
+                if (this.votes[b] == v)
+                    break;
+
+            if (b == m) {
+                this.votes[m] = v;
+                this.sizes[m] = 0;
+                m++;
+            }
+
+            this.sizes[b]++;
+            this.classOf[i] = b;
+        }
+    }
+
+    /**
+     * Groups the players by their weights.
+     *
+     * @param weights the weights of the players
+     */
+    final void group(double[] weights) {
+        int b;
+        double w;
+        m = 0;
+        for (int i = 0; i < n; ++i) {
+            w = weights[i];
+            for (b = 0; b < m; ++b)
+                if (this.weights[b] == w)
+                    break;
+
+            if (b == m) {
+                this.weights[m] = w;
+                this.sizes[m] = 0;
+                m++;
+            }
+
+            this.sizes[b]++;
+            this.classOf[i] = b;
+        }
+    }
+
+    /**
+     * Orders the classes by their votes, the largest first.
+     *
+     * @param order the indices of the classes in order
+     */
+    final void sortByVotes(int[] order) {
+        // Insertion sort, there are only a few classes
+        int index, j;
+        for (int b = 0; b < m; ++b) {
+            index = b;
+            for (j = b; j > 0 && votes[order[j - 1]] < votes[index]; --j)
+                order[j] = order[j - 1];
+            order[j] = index;
+        }
+    }
+
+    /**
+     * The number of cases when going through the classes, saturates at Long.MAX_VALUE.
+     *
+     * @return (c_1 + 1) * ... * (c_m + 1)
+     */
+    final long count() {
+        return GeneratorSubmultiset.count(sizes, m);
+    }
+
+    /**
+     * Copies the class values to every player of the class.
+     *
+     * @param values the value of each class
+     * @param results the value of each player
+     */
+    final void expand(double[] values, double[] results) {
+        for (int i = 0; i < n; ++i)
+            results[i] = values[classOf[i]];
+    }
+}
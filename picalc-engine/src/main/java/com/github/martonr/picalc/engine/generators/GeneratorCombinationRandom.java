@@ -1,5 +1,6 @@
 package com.github.martonr.picalc.engine.generators;
 
+import com.github.martonr.picalc.engine.random.HaltonSequence;
 import com.github.martonr.picalc.engine.random.PCGRandom;
 
 public final class GeneratorCombinationRandom {
@@ -10,26 +11,67 @@ public final class GeneratorCombinationRandom {
 
     private final PCGRandom random;
 
+    // The members of the combination as a bitmask, player i is bit (i & 63) of word (i >>> 6)
+    public final long[] bits;
+
     public int m;
 
+    // If not null, the members are drawn from the points of this sequence
+    private HaltonSequence sequence;
+
     public GeneratorCombinationRandom(int n) {
+        this(n, new PCGRandom());
+    }
+
+    public GeneratorCombinationRandom(int n, PCGRandom random) {
         this.n = n;
         this.combination = new int[n];
+        this.bits = new long[(n + 63) >>> 6];
+
+        this.random = random;
+    }
+
+    /**
+     * Draws the combinations from a scrambled Halton sequence instead of independent bits.
+     *
+     * The scrambling keys are drawn from the random generator, so a reseeded generator gives the
+     * same points again.
+     *
+     * @param on true for the sequence, false for independent bits
+     * @param count the number of combinations to draw
+     */
+    public final void quasiRandom(boolean on, long count) {
+        if (!on) {
+            sequence = null;
+            return;
+        }
 
-        this.random = new PCGRandom();
+        if (sequence == null)
+            sequence = new HaltonSequence(n);
+        sequence.scramble(random, count);
     }
 
     public final int[] next() {
-        int r, k = 0;
+        int bit, k = 0;
+        long word;
+
+        if (sequence != null)
+            return nextQuasi();
 
         // Pick a random sized combination including null
         // This gives a combination size distribution similar
         // to the all combinations distribution (binomial distribution)
         // This is required for the power index estimations to be correct
-        for (int i = 0; i < n; ++i) {
-            r = random.nextBit();
-            combination[k] = r * i;
-            k += r;
+        // Every player is in with probability 1/2, so one random bit decides each of them,
+        // the bits are drawn a word at a time and the members are read off the set bits
+        random.nextBits(bits, n);
+        for (int w = 0; w < bits.length; ++w) {
+            word = bits[w];
+            while (word != 0) {
+                bit = Long.numberOfTrailingZeros(word);
+                combination[k++] = (w << 6) | bit;
+                word &= word - 1;
+            }
         }
 
         this.m = k;
@@ -58,4 +100,24 @@ public final class GeneratorCombinationRandom {
          * t) < k - m) combination[++m] = t; ++t; }
          */
     }
+
+    private final int[] nextQuasi() {
+        // Player i is in if coordinate i of the point is in the lower half
+        int k = 0;
+        sequence.next();
+
+        for (int w = 0; w < bits.length; ++w)
+            bits[w] = 0;
+
+        for (int i = 0; i < n; ++i) {
+            if (sequence.coordinate(i) < 0.5) {
+                bits[i >>> 6] |= 1L << i;
+                combination[k++] = i;
+            }
+        }
+
+        this.m = k;
+
+        return combination;
+    }
 }
@@ -0,0 +1,64 @@
+package com.github.martonr.picalc.engine.generators;
+
+public final class GeneratorGrayCode {
+
+    private final long last;
+
+    private long end;
+
+    private long index;
+
+    public long mask;
+
+    public boolean hasNext;
+
+    public GeneratorGrayCode(int n) {
+        // The subsets are kept as bits of a long
+        if (n > 62)
+            throw new IllegalArgumentException("At most 62 elements are supported");
+
+        this.last = (1L << n) - 1;
+        reset();
+    }
+
+    public void reset() {
+        initialize(0, last);
+    }
+
+    public final void initialize(long from, long to) {
+        // Goes through the subsets with a rank in (from, to],
+        // so consecutive ranges cover every subset once
+        this.index = from;
+        this.end = to;
+        this.mask = unrank(from);
+        this.hasNext = (from < to);
+    }
+
+    public static final long unrank(long index) {
+        // The subset at a given position of the Gray code
+        return index ^ (index >>> 1);
+    }
+
+    public static final long rank(long mask) {
+        // The position of a subset in the Gray code, the inverse of unrank
+        // Every bit is the xor of itself and the bits above it
+        mask ^= mask >>> 1;
+        mask ^= mask >>> 2;
+        mask ^= mask >>> 4;
+        mask ^= mask >>> 8;
+        mask ^= mask >>> 16;
+        mask ^= mask >>> 32;
+        return mask;
+    }
+
+    public final int next() {
+        // Binary reflected Gray code
+        // The i-th subset differs from the previous one in bit ntz(i),
+        // so every subset comes up once with a single element added or removed per step
+        // The starting subset is not returned, it belongs to the previous range
+        int bit = Long.numberOfTrailingZeros(++index);
+        mask ^= 1L << bit;
+        hasNext = index < end;
+        return bit;
+    }
+}
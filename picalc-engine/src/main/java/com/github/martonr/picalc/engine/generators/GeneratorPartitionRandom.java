@@ -19,6 +19,10 @@ public final class GeneratorPartitionRandom {
     private int possibleMax;
 
     public GeneratorPartitionRandom(int p) {
+        this(p, new PCGRandom());
+    }
+
+    public GeneratorPartitionRandom(int p, PCGRandom random) {
         this.p = p;
         this.partition = new int[p + 1];
         this.helper = new int[p + 1];
@@ -27,7 +31,42 @@ public final class GeneratorPartitionRandom {
         for (int i = 0; i < p; ++i)
             ones[i] = 1;
 
-        this.random = new PCGRandom();
+        this.random = random;
+    }
+
+    /**
+     * The number of partitions of the totals in [from, to] into p parts, saturates at
+     * Long.MAX_VALUE. The order of the parts does not matter, and there is no bound on a part,
+     * so this is an upper bound for the partitions with a maximum.
+     *
+     * @param from the smallest total
+     * @param to the largest total
+     * @param p the number of parts
+     * @return the number of partitions of every total
+     */
+    public static final long count(int from, int to, int p) {
+        if (to < p)
+            return 0;
+
+        // Taking 1 from every part, P(m, k) partitions of m into at most k parts,
+        // P(m, k) = P(m, k - 1) + P(m - k, k), row k is updated in place,
+        // there are never more than m parts
+        int size = to - p + 1;
+        long[] partitions = new long[size];
+        partitions[0] = 1;
+        for (int k = 1; k <= p && k < size; ++k)
+            for (int m = k; m < size; ++m)
+                partitions[m] = add(partitions[m], partitions[m - k]);
+
+        long count = 0;
+        for (int m = Math.max(0, from - p); m < size; ++m)
+            count = add(count, partitions[m]);
+
+        return count;
+    }
+
+    private static final long add(long a, long b) {
+        return (a > Long.MAX_VALUE - b) ? Long.MAX_VALUE : a + b;
     }
 
     public final void initialize(int q, int max, int set) {
@@ -1,5 +1,6 @@
 package com.github.martonr.picalc.engine.generators;
 
+import com.github.martonr.picalc.engine.random.HaltonSequence;
 import com.github.martonr.picalc.engine.random.PCGRandom;
 
 public final class GeneratorPermutationRandom {
@@ -10,21 +11,56 @@ public final class GeneratorPermutationRandom {
 
     private final PCGRandom random;
 
+    // If not null, the positions are drawn from the points of this sequence
+    private HaltonSequence sequence;
+
+    private int position;
+
     public GeneratorPermutationRandom(int n) {
+        this(n, new PCGRandom());
+    }
+
+    public GeneratorPermutationRandom(int n, PCGRandom random) {
         this.n = n;
         this.permutation = new int[n];
+        this.random = random;
 
-        for (int i = 0; i < n; ++i)
-            permutation[i] = i;
+        initialize();
+    }
+
+    /**
+     * Draws the permutations from a scrambled Halton sequence instead of independent numbers.
+     *
+     * The scrambling keys are drawn from the random generator, so a reseeded generator gives the
+     * same points again.
+     *
+     * @param on true for the sequence, false for independent numbers
+     * @param count the number of permutations to draw
+     */
+    public final void quasiRandom(boolean on, long count) {
+        if (!on) {
+            sequence = null;
+            return;
+        }
 
-        this.random = new PCGRandom();
+        if (sequence == null)
+            sequence = new HaltonSequence(n);
+        sequence.scramble(random, count);
     }
 
     public final int[] next() {
         int j, swap;
 
+        // A point only gives evenly spread permutations from the same starting arrangement
+        if (sequence != null) {
+            sequence.next();
+            initialize();
+        }
+
         for (int i = n - 1; i > 0; --i) {
-            j = random.nextInt(i + 1);
+            // The first positions get the first coordinates, they are the most even ones
+            j = (sequence == null) ? random.nextInt(i + 1)
+                    : sequence.coordinate(n - 1 - i, i + 1);
 
             swap = permutation[j];
             permutation[j] = permutation[i];
@@ -33,4 +69,35 @@ public final class GeneratorPermutationRandom {
 
         return permutation;
     }
+
+    public final void initialize() {
+        // Puts the elements back in order, so a reseeded random stream
+        // gives the same permutations again
+        for (int i = 0; i < n; ++i)
+            permutation[i] = i;
+    }
+
+    public final void reset() {
+        // Starts a new lazily drawn permutation
+        // The positions are not put back in order, the shuffle is uniform from any arrangement
+        position = 0;
+
+        if (sequence != null) {
+            sequence.next();
+            initialize();
+        }
+    }
+
+    public final int nextElement() {
+        // Forward Fisher-Yates shuffle, one position at a time
+        // Drawing stops when the caller does not need the rest of the permutation
+        int i = position++;
+        int j = i + ((sequence == null) ? random.nextInt(n - i) : sequence.coordinate(i, n - i));
+
+        int swap = permutation[j];
+        permutation[j] = permutation[i];
+        permutation[i] = swap;
+
+        return swap;
+    }
 }
@@ -0,0 +1,84 @@
+package com.github.martonr.picalc.engine.generators;
+
+public final class GeneratorSubmultiset {
+
+    private final int[] counts;
+
+    private int[] sizes;
+
+    private long index;
+
+    private long end;
+
+    private boolean started;
+
+    public int m;
+
+    public boolean hasNext;
+
+    public GeneratorSubmultiset(int max) {
+        // Set to the maximum possible number of distinct elements
+        this.counts = new int[max];
+    }
+
+    /**
+     * The number of submultisets, saturates at Long.MAX_VALUE.
+     *
+     * @param sizes the number of times each element is in the multiset
+     * @param m the number of distinct elements
+     * @return (sizes[0] + 1) * ... * (sizes[m - 1] + 1)
+     */
+    public static final long count(int[] sizes, int m) {
+        long count = 1;
+        for (int j = 0; j < m; ++j) {
+            if (count > Long.MAX_VALUE / (sizes[j] + 1))
+                return Long.MAX_VALUE;
+            count *= sizes[j] + 1;
+        }
+        return count;
+    }
+
+    public final void initialize(int[] sizes, int m) {
+        // The multiset has m distinct elements, element i is there sizes[i] times
+        // A submultiset is given by how many times each element is taken,
+        // there are (sizes[0] + 1) * ... * (sizes[m - 1] + 1) of them
+        initialize(sizes, m, 0, count(sizes, m));
+    }
+
+    public final void initialize(int[] sizes, int m, long from, long to) {
+        // Goes through the submultisets with a rank in [from, to),
+        // so consecutive ranges cover every submultiset once
+        this.sizes = sizes;
+        this.m = m;
+        this.index = from;
+        this.end = to;
+        this.started = false;
+        this.hasNext = (from < to);
+
+        // The rank is a mixed radix number, the last element is the lowest digit
+        long rank = from;
+        for (int j = m - 1; j >= 0; --j) {
+            counts[j] = (int) (rank % (sizes[j] + 1));
+            rank /= sizes[j] + 1;
+        }
+    }
+
+    public final int[] next() {
+        // Mixed radix counting, like the n-tuples in lexicographic order,
+        // but every position has its own maximum
+        // The first submultiset of the range is returned as it is
+        if (started) {
+            for (int j = m - 1; j >= 0; j--) {
+                if (counts[j] < sizes[j]) {
+                    counts[j]++;
+                    break;
+                }
+                counts[j] = 0;
+            }
+        }
+
+        started = true;
+        hasNext = ++index < end;
+        return counts;
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.martonr.picalc.engine.random;
+
+/**
+ * Scrambled Halton sequence, a low-discrepancy replacement for independent random numbers.
+ *
+ * Coordinate d of point i is the radical inverse of i in the d-th prime base: its digits are
+ * mirrored around the radix point. The points fill the unit cube more evenly than random ones,
+ * so averages over them converge faster. The digits are scrambled like Owen's nested scrambling:
+ * every digit goes through a permutation that depends on the digits before it, which keeps the
+ * evenness, makes every point uniformly distributed, and removes the correlation of the larger
+ * bases. The permutations are affine maps a * digit + c mod b, with a and c hashed from a random
+ * key, the position of the digit and the digits before it.
+ *
+ * Only the digits the points of a run can have are scrambled one by one, past them every point is
+ * alone in its interval, so the rest of the digits are independent and uniform and they are drawn
+ * at once as a single uniform number hashed the same way.
+ */
+public final class HaltonSequence {
+
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private final int[] bases;
+
+    // The number of digits scrambled one by one in each dimension
+    private final int[] depths;
+
+    private final long[] keys;
+
+    private long index;
+
+    public HaltonSequence(int dimensions) {
+        this.bases = new int[dimensions];
+        this.depths = new int[dimensions];
+        this.keys = new long[dimensions];
+
+        // The first primes are the bases
+        int candidate = 2;
+        for (int d = 0; d < dimensions; ++candidate) {
+            boolean prime = true;
+            for (int i = 0; i < d && bases[i] * bases[i] <= candidate; ++i) {
+                if (candidate % bases[i] == 0) {
+                    prime = false;
+                    break;
+                }
+            }
+
+            if (prime) {
+                bases[d++] = candidate;
+            }
+        }
+    }
+
+    /**
+     * Draws new scrambling keys and starts again, next gives the first point.
+     *
+     * @param random the source of the keys
+     * @param points the number of points to use, more points are still uniform but less even
+     */
+    public final void scramble(PCGRandom random, long points) {
+        long power;
+        for (int d = 0; d < keys.length; ++d) {
+            keys[d] = random.nextLong();
+
+            // Enough digits for the indices below points
+            depths[d] = 1;
+            for (power = bases[d]; power < points && power <= Long.MAX_VALUE / bases[d];
+                    power *= bases[d])
+                depths[d]++;
+        }
+        index = -1;
+    }
+
+    /**
+     * Moves to the next point, the first one after scrambling.
+     */
+    public final void next() {
+        index++;
+    }
+
+    /**
+     * A coordinate of the current point.
+     *
+     * @param dimension the coordinate, less than the dimension count
+     * @return a number in [0, 1)
+     */
+    public final double coordinate(int dimension) {
+        int b = bases[dimension], digit, a, c, k;
+        long key = keys[dimension], rest = index, prefix = 0, power = 1, h;
+        double inverse = 1.0 / b, factor = inverse, value = 0;
+
+        for (k = 0; k < depths[dimension]; ++k) {
+            digit = (int) (rest % b);
+            rest /= b;
+
+            // The permutation of this digit depends on the ones before it
+            h = mix(key ^ ((prefix << 6) | k));
+            a = (b > 2) ? 1 + (int) ((h >>> 32) % (b - 1)) : 1;
+            c = (int) ((h & 0xFFFFFFFFL) % b);
+
+            value += ((a * digit + c) % b) * factor;
+            factor *= inverse;
+
+            prefix += digit * power;
+            power *= b;
+        }
+
+        // The digits of the tail together, the higher digits of a long run keep the points apart
+        h = mix(mix(key ^ ((prefix << 6) | k)) + (rest + 1) * 0x9E3779B97F4A7C15L);
+        value += (h >>> 11) * DOUBLE_UNIT * b * factor;
+
+        // Rounding could give 1 in the larger bases
+        return (value < 1) ? value : Math.nextDown(1.0);
+    }
+
+    /**
+     * A coordinate of the current point as a whole number.
+     *
+     * @param dimension the coordinate, less than the dimension count
+     * @param bound the upper bound, exclusive
+     * @return a number in [0, bound)
+     */
+    public final int coordinate(int dimension, int bound) {
+        return (int) (coordinate(dimension) * bound);
+    }
+
+    private static final long mix(long z) {
+        // MurmurHash3 64-bit finalizer
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
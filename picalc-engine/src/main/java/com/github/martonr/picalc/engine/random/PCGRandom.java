@@ -1,10 +1,15 @@
 package com.github.martonr.picalc.engine.random;
 
-public final class PCGRandom {
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
+
+public final class PCGRandom implements RandomGenerator.SplittableGenerator {
 
     private static final int INT_MIN = 0x80000000;
     private static final long UINT_MAX = 0xFFFFFFFFL;
     private static final long PCG_MULT = 6364136223846793005L;
+    private static final long RXS_M_XS_MULT = 0xAEF17502108EF2D9L;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
 
 
     private long state;
@@ -30,6 +35,18 @@ public final class PCGRandom {
     }
 
     public PCGRandom(long initialState, long increment) {
+        initialize(initialState, increment);
+    }
+
+    /**
+     * The generator itself if it is a PCGRandom, otherwise a new one seeded from its output.
+     */
+    public static final PCGRandom from(RandomGenerator.SplittableGenerator random) {
+        return (random instanceof PCGRandom) ? (PCGRandom) random
+                : new PCGRandom(random.nextLong(), random.nextLong());
+    }
+
+    private final void initialize(long initialState, long increment) {
         this.state = 0L;
         this.increment = (increment << 1) | 1;
         this.state = this.state * PCG_MULT + this.increment;
@@ -37,6 +54,109 @@ public final class PCGRandom {
         this.state = this.state * PCG_MULT + this.increment;
     }
 
+    /**
+     * Moves the generator to the stream of a counter. The same seed and counter always give the
+     * same sequence, so the i-th sample of a run draws the same numbers on any thread.
+     *
+     * @param seed the seed of the run
+     * @param counter the number of the sample
+     */
+    public final void reseed(long seed, long counter) {
+        // The state and the increment are scrambled from the seed and the counter
+        // with two different 64-bit finalizers (SplitMix64 and MurmurHash3),
+        // so neighbouring counters get unrelated streams
+        long z = seed + (counter + 1) * GOLDEN_GAMMA;
+
+        long s = z;
+        s = (s ^ (s >>> 30)) * 0xBF58476D1CE4E5B9L;
+        s = (s ^ (s >>> 27)) * 0x94D049BB133111EBL;
+        s = s ^ (s >>> 31);
+
+        long i = z;
+        i = (i ^ (i >>> 33)) * 0xFF51AFD7ED558CCDL;
+        i = (i ^ (i >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        i = i ^ (i >>> 33);
+
+        initialize(s, i);
+    }
+
+    /**
+     * Moves the generator ahead by the given number of steps in O(log delta) time. A negative
+     * delta moves it back, the steps are counted modulo 2^64.
+     *
+     * @param delta the number of outputs to skip
+     */
+    public final void advance(long delta) {
+        // Jump ahead for an LCG, from "Random Number Generation with Arbitrary Strides"
+        // by Forrest B. Brown, 1994, as in the PCG C library
+        // Squaring the step gives the multiplier and increment of 2, 4, 8, ... steps,
+        // these are applied for the set bits of delta
+        long accMult = 1L, accPlus = 0L;
+        long curMult = PCG_MULT, curPlus = this.increment;
+
+        while (delta != 0) {
+            if ((delta & 1) != 0) {
+                accMult *= curMult;
+                accPlus = accPlus * curMult + curPlus;
+            }
+            curPlus = (curMult + 1) * curPlus;
+            curMult *= curMult;
+            delta >>>= 1;
+        }
+
+        this.state = accMult * this.state + accPlus;
+    }
+
+    /**
+     * A new generator on a different stream, seeded from the output of this one.
+     */
+    @Override
+    public final PCGRandom split() {
+        return split(this);
+    }
+
+    /**
+     * A new generator on a different stream, seeded from the output of the source.
+     */
+    @Override
+    public final PCGRandom split(SplittableGenerator source) {
+        // The increment selects the stream, generators with different increments
+        // give different sequences even from the same state
+        return new PCGRandom(source.nextLong(), source.nextLong());
+    }
+
+    @Override
+    public final Stream<SplittableGenerator> splits(long streamSize) {
+        return splits(streamSize, this);
+    }
+
+    @Override
+    public final Stream<SplittableGenerator> splits(SplittableGenerator source) {
+        return Stream.generate(() -> (SplittableGenerator) split(source)).sequential();
+    }
+
+    @Override
+    public final Stream<SplittableGenerator> splits(long streamSize, SplittableGenerator source) {
+        if (streamSize < 0)
+            throw new IllegalArgumentException("The stream size must be non-negative");
+
+        return splits(source).limit(streamSize);
+    }
+
+    @Override
+    public final long nextLong() {
+        // The 64-bit output of the same LCG, one step per value
+        // RXS M XS output function from the PCG C library (pcg_output_rxs_m_xs_64_64)
+        long oldState;
+
+        oldState = this.state;
+        this.state = oldState * PCG_MULT + this.increment;
+
+        long word = ((oldState >>> ((int) (oldState >>> 59) + 5)) ^ oldState) * RXS_M_XS_MULT;
+        return (word >>> 43) ^ word;
+    }
+
+    @Override
     public final int nextInt() {
         // PCG Random generation algorithm by Melissa O'Neill
         // Reimplemented from the minimal C version
@@ -52,6 +172,7 @@ public final class PCGRandom {
         return (xorShift >>> rotation) | (xorShift << (-rotation));
     }
 
+    @Override
     public final int nextInt(int bound) {
         // PCG Random bounded value generation by Melissa O'Neill
         // Reimplemented from the blog post:
@@ -102,4 +223,16 @@ public final class PCGRandom {
     public final int nextBit() {
         return (nextInt() & 1);
     }
+
+    public final void nextBits(long[] bits, int count) {
+        // Fills the words with random bits, one 64-bit output per word
+        // Only the first count bits are kept, the rest of the last word is cleared
+        int words = (count + 63) >>> 6;
+        for (int i = 0; i < words; ++i)
+            bits[i] = nextLong();
+
+        int rest = count & 63;
+        if (rest != 0)
+            bits[words - 1] &= (1L << rest) - 1;
+    }
 }
@@ -1,6 +1,7 @@
 package com.github.martonr.picalc.engine.random;
 
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public final class PCGSeeder {
 
@@ -24,8 +25,10 @@ public final class PCGSeeder {
 
     public PCGSeeder() {
         this.mixer[0] = crushToInt(System.nanoTime());
-        this.mixer[1] = System.identityHashCode(new Object());
-        this.mixer[2] = new Random().nextInt();
+        // The seeder itself gives the identity hash, the thread's generator the random value,
+        // so seeding does not allocate anything else
+        this.mixer[1] = System.identityHashCode(this);
+        this.mixer[2] = ThreadLocalRandom.current().nextInt();
         this.mixer[3] = GLOBAL_COUNTER;
 
         // This is an intentional race condition possibility.
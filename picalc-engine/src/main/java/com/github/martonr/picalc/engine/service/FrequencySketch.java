@@ -0,0 +1,95 @@
+package com.github.martonr.picalc.engine.service;
+
+/**
+ * Estimates how often the scenarios of the simulation cache were looked up, for deciding if a new
+ * scenario is worth more than the one it would replace, like TinyLFU in "TinyLFU: A Highly
+ * Efficient Cache Admission Policy" by Gil Einziger, Roy Friedman and Ben Manes, 2017.
+ *
+ * A count-min sketch of 4-bit counters, 16 in every long. A scenario has a counter in each of 4
+ * rows and its frequency is the smallest of them, collisions can only make it larger. After a
+ * number of lookups every counter is halved, so the frequencies follow the recent lookups. The
+ * counters are updated without synchronization, an update lost in a race only makes an estimate
+ * a bit smaller.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {0x97CB3127E4AF7DD5L, 0xB492B66FBE98F273L,
+            0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+
+    private int additions;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param slots the number of slots of the cache
+     */
+    FrequencySketch(int slots) {
+        // Four counters for every slot
+        int size = Math.max(8, slots >> 2);
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.sampleSize = Math.max(1, slots) * 10;
+    }
+
+    /**
+     * Counts a lookup of a scenario.
+     *
+     * @param hashCode the hash of the scenario
+     */
+    final void increment(long hashCode) {
+        boolean added = false;
+        long h;
+        int i, shift;
+        for (int k = 0; k < 4; ++k) {
+            h = mix(hashCode + SEEDS[k]);
+            i = (int) h & mask;
+            shift = (int) (h >>> 60) << 2;
+
+            // The counters stop at 15
+            if (((table[i] >>> shift) & 15) != 15) {
+                table[i] += (1L << shift);
+                added = true;
+            }
+        }
+
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    /**
+     * The estimated number of lookups of a scenario.
+     *
+     * @param hashCode the hash of the scenario
+     * @return the frequency, 0 to 15
+     */
+    final int frequency(long hashCode) {
+        int frequency = 15, count;
+        long h;
+        for (int k = 0; k < 4; ++k) {
+            h = mix(hashCode + SEEDS[k]);
+            count = (int) (table[(int) h & mask] >>> ((int) (h >>> 60) << 2)) & 15;
+            if (count < frequency)
+                frequency = count;
+        }
+        return frequency;
+    }
+
+    private final void reset() {
+        // Halves every counter at once, the bit shifted in from the next one is masked out
+        for (int i = 0; i < table.length; ++i)
+            table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+
+        additions = sampleSize >>> 1;
+    }
+
+    private static final long mix(long z) {
+        // MurmurHash3 64-bit finalizer
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
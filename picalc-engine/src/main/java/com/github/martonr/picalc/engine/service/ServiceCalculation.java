@@ -120,6 +120,45 @@ public final class ServiceCalculation {
         }));
     }
 
+    /**
+     * Starts a calculation of the classic index values that is done by the deadline. If the exact
+     * values would take too long, the callback gets the estimates taken by then, with their
+     * standard errors and the number of samples.
+     *
+     * @param params a CalculatorParameters object containing the parameters
+     * @param timeout the time the calculation can take
+     * @param unit the unit of the timeout
+     * @param callback Callback function that will be called after the results are available
+     */
+    public final void calculateSSBF(CalculatorParameters params, long timeout, TimeUnit unit,
+            Consumer<Results> callback) {
+        calculateUntil(params, System.nanoTime() + unit.toNanos(timeout), callback);
+    }
+
+    /**
+     * Starts a calculation of the DPI values that is done by the deadline, like calculateSSBF.
+     *
+     * @param params a CalculatorParameters object containing the parameters
+     * @param timeout the time the calculation can take
+     * @param unit the unit of the timeout
+     * @param callback Callback function that will be called after the results are available
+     */
+    public final void calculateDPI(CalculatorParameters params, long timeout, TimeUnit unit,
+            Consumer<Results> callback) {
+        calculateUntil(params, System.nanoTime() + unit.toNanos(timeout), callback);
+    }
+
+    private final void calculateUntil(CalculatorParameters params, long deadline,
+            Consumer<Results> callback) {
+        // Clean up queue
+        cleanupTasks();
+
+        runningTasks.add(EXECUTOR.submit(() -> {
+            callback.accept(task.startCalculation(params, deadline));
+            cleanupTasks();
+        }));
+    }
+
     /**
      * Cane be used to check if any calculations are running currently
      *
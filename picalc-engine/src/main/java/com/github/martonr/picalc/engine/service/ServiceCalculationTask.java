@@ -1,17 +1,41 @@
 package com.github.martonr.picalc.engine.service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import com.github.martonr.picalc.engine.calculators.CalculatorBanzhaf;
+import com.github.martonr.picalc.engine.calculators.CalculatorBanzhafDP;
 import com.github.martonr.picalc.engine.calculators.CalculatorDPI;
 import com.github.martonr.picalc.engine.calculators.CalculatorParameters;
 import com.github.martonr.picalc.engine.calculators.CalculatorShapley;
+import com.github.martonr.picalc.engine.calculators.CalculatorShapleyDP;
+import com.github.martonr.picalc.engine.random.PCGRandom;
 
 public final class ServiceCalculationTask {
 
+    // A seeded estimation is split into this many parts whatever the thread count,
+    // every part has its own random stream
+    private static final int CHUNKS = 64;
+
+    // An adaptive estimation takes this many batches between the checks of the precision,
+    // whatever the thread count
+    private static final int ROUND = 16;
+
+    // The batch means give the variance only after enough batches
+    private static final int MIN_BATCHES = 32;
+
+    private static final long MIN_BATCH = 1000;
+    private static final long MAX_BATCH = 1000000;
+
+    // An estimation without a seed adds up its samples in pieces of about this many player
+    // steps, a stopped one keeps the finished pieces
+    private static final long PIECE = 1L << 20;
+
     private final ThreadPoolExecutor executor;
     private final int threads;
 
@@ -21,6 +45,48 @@ public final class ServiceCalculationTask {
     }
 
     public final Results startCalculation(CalculatorParameters params) {
+        if (params.monteCarloCount > 0 && params.precision > 0)
+            return startAdaptiveCalculation(params, false, 0);
+
+        return startCalculation(params, false, 0);
+    }
+
+    /**
+     * Calculates until the deadline, and returns the estimates taken by then.
+     *
+     * The exact calculation gets half of the time, if it does not finish the rest of the time goes
+     * to an estimation. The Monte-Carlo count, if given, is the most samples to take.
+     *
+     * @param params the parameters
+     * @param deadline a System.nanoTime value
+     * @return the results, or null if stopped before any estimates were taken
+     */
+    public final Results startCalculation(CalculatorParameters params, long deadline) {
+        if (params.monteCarloCount == 0) {
+            long start = System.nanoTime();
+            Results output = startCalculation(params, true, start + (deadline - start) / 2);
+            if (output != null || Thread.currentThread().isInterrupted())
+                return output;
+
+            CalculatorParameters estimated = new CalculatorParameters();
+            estimated.n = params.n;
+            estimated.votes = params.votes;
+            estimated.weights = params.weights;
+            estimated.quota = params.quota;
+            estimated.seed = params.seed;
+            estimated.precision = params.precision;
+            estimated.confidence = params.confidence;
+            estimated.conditional = params.conditional;
+            estimated.quasiRandom = params.quasiRandom;
+            estimated.monteCarloCount = Long.MAX_VALUE;
+            params = estimated;
+        }
+
+        return startAdaptiveCalculation(params, true, deadline);
+    }
+
+    private final Results startCalculation(CalculatorParameters params, boolean timed,
+            long deadline) {
         List<Future<?>> spawnedTasks = new ArrayList<>(threads);
 
         CalculationScenario[] scenarios = createScenarios(params);
@@ -36,130 +102,507 @@ public final class ServiceCalculationTask {
             spawnedTasks.add(executor.submit(() -> executeScenario(scenarios[t])));
         }
 
+        // A stopped estimation keeps the parts that were finished
+        boolean estimated = params.monteCarloCount > 0;
+        if (!awaitTasks(spawnedTasks, timed, deadline) && !estimated)
+            return null;
+
+        output.samples = processScenarioResults(scenarios, output);
+        if (estimated && output.samples == 0)
+            return null;
+
+        output.time = TimeUnit.SECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        return output;
+    }
+
+    private final boolean awaitTasks(List<Future<?>> tasks, boolean timed, long deadline) {
+        // Waits for the tasks, the ones still running at the deadline are cancelled
+        // Returns false if any of them did not finish, the thread stays interrupted if it was
         try {
-            for (Future<?> f : spawnedTasks)
-                f.get();
+            for (Future<?> f : tasks) {
+                if (timed) {
+                    f.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } else {
+                    f.get();
+                }
+            }
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (InterruptedException ex) {
+            // Computation was stopped
+            Thread.currentThread().interrupt();
+            return false;
         } catch (Exception ex) {
-            // Computation was interrupted
             ex.printStackTrace();
-            return null;
+            return false;
         } finally {
-            for (Future<?> f : spawnedTasks)
+            for (Future<?> f : tasks)
                 f.cancel(true);
-            spawnedTasks.clear();
+            tasks.clear();
+        }
+    }
+
+    private final Results startAdaptiveCalculation(CalculatorParameters params, boolean timed,
+            long deadline) {
+        // The samples are taken in batches of the same size, the spread of the batch estimates
+        // gives the variance of every index value, even for the normalized ones
+        // The batches are taken in rounds, the precision is checked after every round
+        // When stopped or out of time, the results of the finished rounds are returned
+        List<Future<?>> spawnedTasks = new ArrayList<>(threads);
+
+        int n = params.n;
+        boolean isDpi = params.weights != null;
+        long budget = params.monteCarloCount;
+
+        // Short rounds keep close to the deadline
+        long batch = timed ? MIN_BATCH : budget / (ROUND * 1024);
+        batch = (batch < MIN_BATCH) ? MIN_BATCH : (batch > MAX_BATCH) ? MAX_BATCH : batch;
+        if (batch * ROUND > budget)
+            batch = Math.max(1, budget / ROUND);
+
+        double z = normalQuantile(0.5 + params.confidence / 2);
+
+        double[][] batchResultsA = new double[ROUND][n];
+        double[][] batchResultsB = new double[ROUND][n];
+
+        PCGRandom random = new PCGRandom();
+        CalculationScenario[] scenarios = new CalculationScenario[threads];
+        for (int i = 0; i < threads; ++i) {
+            scenarios[i] = new CalculationScenario(params, random.split(), true);
+            scenarios[i].chunk = i;
+            scenarios[i].chunkSize = batch;
+            scenarios[i].chunkResultsA = batchResultsA;
+            scenarios[i].chunkResultsB = batchResultsB;
         }
 
-        processScenarioResults(scenarios);
+        // The added up results, and the mean and the sum of squared differences
+        // of the batch estimates
+        double[] totalA = new double[n];
+        double[] totalB = new double[n];
+        double[] meanA = new double[n];
+        double[] meanB = new double[n];
+        double[] squaresA = new double[n];
+        double[] squaresB = new double[n];
+        double[] estimate = new double[n];
+
+        Results output = new Results(n, isDpi);
+        double[] errorA = new double[n];
+        double[] errorB = isDpi ? null : new double[n];
+        Arrays.fill(errorA, Double.POSITIVE_INFINITY);
+        if (!isDpi)
+            Arrays.fill(errorB, Double.POSITIVE_INFINITY);
+
+        long start = System.nanoTime();
 
-        if (scenarios[0].isDpi) {
-            System.arraycopy(scenarios[0].rawResultsA, 0, output.dpi, 0, n);
+        long batches = 0;
+        double worst;
+        do {
+            for (int i = 0; i < threads; ++i) {
+                int t = i;
+
+                scenarios[t].chunkOffset = batches;
+                spawnedTasks.add(executor.submit(() -> executeScenario(scenarios[t])));
+            }
+
+            // The batches of an unfinished round are dropped
+            if (!awaitTasks(spawnedTasks, timed, deadline))
+                break;
+
+            // The batches are added in order, so a seeded estimation does not depend on the
+            // threads
+            for (int k = 0; k < ROUND; ++k) {
+                batches++;
+
+                System.arraycopy(batchResultsA[k], 0, estimate, 0, n);
+                if (isDpi) {
+                    CalculatorDPI.normalizeDPI(estimate);
+                } else {
+                    CalculatorShapley.normalizeSS(estimate, batch);
+                }
+                updateMeans(batchResultsA[k], totalA, estimate, meanA, squaresA, batches);
+
+                if (!isDpi) {
+                    System.arraycopy(batchResultsB[k], 0, estimate, 0, n);
+                    CalculatorBanzhaf.normalizeBF(estimate);
+                    updateMeans(batchResultsB[k], totalB, estimate, meanB, squaresB, batches);
+                }
+            }
+
+            // The standard error of the mean of the batches, the half-width of the confidence
+            // interval is z times this
+            worst = 0;
+            for (int i = 0; i < n; ++i) {
+                errorA[i] = Math.sqrt(squaresA[i] / (batches - 1) / batches);
+                worst = Math.max(worst, errorA[i]);
+
+                if (!isDpi) {
+                    errorB[i] = Math.sqrt(squaresB[i] / (batches - 1) / batches);
+                    worst = Math.max(worst, errorB[i]);
+                }
+            }
+        } while ((batches < MIN_BATCHES || z * worst > params.precision)
+                && (batches + ROUND) * batch <= budget
+                && (!timed || deadline - System.nanoTime() > 0));
+
+        if (batches == 0)
+            return null;
+
+        if (isDpi) {
+            CalculatorDPI.normalizeDPI(totalA);
+            System.arraycopy(totalA, 0, output.dpi, 0, n);
+            output.dpiError = errorA;
         } else {
-            System.arraycopy(scenarios[0].rawResultsA, 0, output.shapley, 0, n);
-            System.arraycopy(scenarios[0].rawResultsB, 0, output.banzhaf, 0, n);
+            CalculatorShapley.normalizeSS(totalA, batches * batch);
+            CalculatorBanzhaf.normalizeBF(totalB);
+            System.arraycopy(totalA, 0, output.shapley, 0, n);
+            System.arraycopy(totalB, 0, output.banzhaf, 0, n);
+            output.shapleyError = errorA;
+            output.banzhafError = errorB;
         }
 
+        output.samples = batches * batch;
         output.time = TimeUnit.SECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
         return output;
     }
 
+    private static final void updateMeans(double[] raw, double[] total, double[] estimate,
+            double[] mean, double[] squares, long count) {
+        // Adds the raw results of a batch, and its estimate to the mean and the squared
+        // differences with Welford's algorithm
+        double previous;
+        for (int i = 0; i < raw.length; ++i) {
+            total[i] += raw[i];
+
+            previous = mean[i];
+            mean[i] += (estimate[i] - previous) / count;
+            squares[i] += (estimate[i] - previous) * (estimate[i] - mean[i]);
+        }
+    }
+
+    static final double normalQuantile(double p) {
+        // The inverse of the standard normal distribution function
+        // Rational approximation by Peter J. Acklam, the relative error is below 1.15e-9
+        if (!(p > 0 && p < 1))
+            throw new IllegalArgumentException("The probability must be between 0 and 1");
+
+        double q, r;
+        if (p < 0.02425) {
+            q = Math.sqrt(-2 * Math.log(p));
+            return (((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q
+                    - 2.400758277161838e+00) * q - 2.549732539343734e+00) * q
+                    + 4.374664141464968e+00) * q + 2.938163982698783e+00)
+                    / ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q
+                            + 2.445134137142996e+00) * q + 3.754408661907416e+00) * q + 1);
+        }
+
+        if (p > 1 - 0.02425)
+            return -normalQuantile(1 - p);
+
+        q = p - 0.5;
+        r = q * q;
+        return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r
+                - 2.759285104469687e+02) * r + 1.383577518672690e+02) * r
+                - 3.066479806614716e+01) * r + 2.506628277459239e+00) * q
+                / (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r
+                        - 1.556989798598866e+02) * r + 6.680131316069661e+01) * r
+                        - 1.328068155288572e+01) * r + 1);
+    }
+
     private final CalculationScenario[] createScenarios(CalculatorParameters params) {
         CalculationScenario[] output;
 
         long mc = params.monteCarloCount;
         boolean estimated = mc > 0;
-        int t = estimated ? threads : 1;
 
-        long c = mc / threads;
-        long r = mc - (c * threads);
+        // Every scenario gets its own stream split from one generator,
+        // so only this one has to be seeded
+        PCGRandom random = new PCGRandom();
+
+        if (!estimated) {
+            CalculationScenario first = new CalculationScenario(params, random.split(), true);
+            first.primary = true;
+
+            if (threads < 2 || first.isDpi)
+                return new CalculationScenario[] {first};
+
+            // The exact enumerations can be split into ranges, the dynamic programs run on one
+            // thread
+            // The Shapley-Shubik pivot counts are added up exactly up to 18 players, so the split
+            // gives the same results as a single thread
+            int n = params.n;
+            boolean splitShapley = first.shapleyDP == null && n <= 18;
+            boolean splitBanzhaf = first.banzhafDP == null && n < 62
+                    && !first.banzhaf.isGrouped(params.votes);
+
+            if (!splitShapley && !splitBanzhaf)
+                return new CalculationScenario[] {first};
+
+            long count = splitBanzhaf ? CalculatorBanzhaf.combinationCount(n) : 0;
+            long sets = splitShapley ? first.shapley.classCount(params.votes) : 0;
+
+            output = new CalculationScenario[threads];
+
+            for (int i = 0; i < threads; ++i) {
+                output[i] = (i == 0) ? first
+                        : new CalculationScenario(params, random.split(), false);
+                output[i].splitShapley = splitShapley;
+                output[i].splitBanzhaf = splitBanzhaf;
+                output[i].shapleyFrom = rangeStart(sets, threads, i);
+                output[i].shapleyTo = rangeStart(sets, threads, i + 1);
+                output[i].banzhafFrom = rangeStart(count, threads, i);
+                output[i].banzhafTo = rangeStart(count, threads, i + 1);
+            }
+
+            return output;
+        }
 
-        output = new CalculationScenario[t];
+        output = new CalculationScenario[threads];
+
+        if (params.seed != 0) {
+            // The parts and their streams do not depend on the threads,
+            // so the same seed gives the same results on any number of threads
+            // A stopped estimation keeps the finished parts
+            int chunks = (int) Math.min(CHUNKS, mc);
+            double[][] chunkResultsA = new double[chunks][params.n];
+            double[][] chunkResultsB = new double[chunks][params.n];
+            AtomicIntegerArray chunkDone = new AtomicIntegerArray(chunks);
+
+            for (int i = 0; i < threads; ++i) {
+                output[i] = new CalculationScenario(params, random.split(), true);
+                output[i].chunk = i;
+                output[i].chunkResultsA = chunkResultsA;
+                output[i].chunkResultsB = chunkResultsB;
+                output[i].chunkDone = chunkDone;
+            }
 
-        for (int i = 0; i < t; ++i) {
-            long work = (i < r) ? (c + 1) : c;
+            return output;
+        }
 
-            output[i] = new CalculationScenario(params);
-            output[i].mc = work;
+        for (int i = 0; i < threads; ++i) {
+            output[i] = new CalculationScenario(params, random.split(), true);
+            output[i].mc = rangeStart(mc, threads, i + 1) - rangeStart(mc, threads, i);
         }
 
         return output;
     }
 
-    private final void executeScenario(CalculationScenario scenario) {
-        boolean estimated = scenario.mc > 0;
+    /**
+     * The number of ranges the exact Shapley-Shubik calculation is split into.
+     *
+     * @param params the parameters
+     * @return the number of ranges, 1 if it runs on one thread
+     */
+    final int shapleyRanges(CalculatorParameters params) {
+        CalculationScenario[] scenarios = createScenarios(params);
+        return scenarios[0].splitShapley ? scenarios.length : 1;
+    }
+
+    private static final long rangeStart(long count, int parts, int i) {
+        // Splits the count into equal parts, the first ones get the remainder
+        long c = count / parts;
+        long r = count - (c * parts);
+        return c * i + ((i < r) ? i : r);
+    }
 
-        if (scenario.isDpi) {
-            calculateDPI(scenario, estimated);
+    private final void executeScenario(CalculationScenario scenario) {
+        if (scenario.chunkResultsA != null) {
+            calculateChunks(scenario);
+        } else if (scenario.mc > 0) {
+            calculatePieces(scenario);
+        } else if (scenario.isDpi) {
+            calculateDPI(scenario);
         } else {
-            calculateSSBF(scenario, estimated);
+            calculateSSBF(scenario);
         }
     }
 
-    private final void calculateSSBF(CalculationScenario scenario, boolean estimated) {
+    private final void calculateChunks(CalculationScenario scenario) {
         CalculatorParameters params = scenario.calculatorParams;
-        CalculatorShapley shapley = scenario.shapley;
-        CalculatorBanzhaf banzhaf = scenario.banzhaf;
+        PCGRandom random = scenario.random;
 
-        long emc = scenario.mc;
+        long mc = params.monteCarloCount;
+        int chunks = scenario.chunkResultsA.length;
+
+        // The scenarios take every threads-th part
+        // The parts of an adaptive estimation are all the same size, and are numbered on from
+        // the previous rounds
+        for (int k = scenario.chunk; k < chunks; k += threads) {
+            long work = (scenario.chunkSize > 0) ? scenario.chunkSize
+                    : rangeStart(mc, chunks, k + 1) - rangeStart(mc, chunks, k);
+            if (params.seed != 0)
+                random.reseed(params.seed, scenario.chunkOffset + k);
+
+            if (scenario.isDpi) {
+                scenario.dpi.calculateMC(params, scenario.chunkResultsA[k], work);
+            } else {
+                scenario.shapley.calculateMC(params, scenario.chunkResultsA[k], work);
+                scenario.banzhaf.calculateMC(params, scenario.chunkResultsB[k], work);
+            }
 
-        if (estimated) {
-            shapley.calculateMC(params, scenario.rawResultsA, emc);
-            banzhaf.calculateMC(params, scenario.rawResultsB, emc);
-        } else {
-            shapley.calculate(params, scenario.rawResultsA);
-            banzhaf.calculate(params, scenario.rawResultsB);
+            // The calculators return early when interrupted
+            if (Thread.currentThread().isInterrupted())
+                return;
+            if (scenario.chunkDone != null)
+                scenario.chunkDone.set(k, 1);
         }
     }
 
-    private final void calculateDPI(CalculationScenario scenario, boolean estimated) {
+    private final void calculatePieces(CalculationScenario scenario) {
         CalculatorParameters params = scenario.calculatorParams;
-        CalculatorDPI dpi = scenario.dpi;
+        int n = params.n;
 
-        long emc = scenario.mc;
+        double[] pieceA = new double[n];
+        double[] pieceB = scenario.isDpi ? null : new double[n];
+        long piece = Math.max(MIN_BATCH, PIECE / n);
 
-        if (estimated) {
-            dpi.calculateMC(params, scenario.rawResultsA, emc);
-        } else {
-            dpi.calculate(params, scenario.rawResultsA);
+        for (long done = 0; done < scenario.mc;) {
+            long work = Math.min(piece, scenario.mc - done);
+
+            if (scenario.isDpi) {
+                scenario.dpi.calculateMC(params, pieceA, work);
+            } else {
+                scenario.shapley.calculateMC(params, pieceA, work);
+                scenario.banzhaf.calculateMC(params, pieceB, work);
+            }
+
+            // The calculators return early when interrupted
+            if (Thread.currentThread().isInterrupted())
+                return;
+
+            // The results are read while the scenario may still run if it was stopped
+            synchronized (scenario) {
+                for (int i = 0; i < n; ++i) {
+                    scenario.rawResultsA[i] += pieceA[i];
+                    if (pieceB != null)
+                        scenario.rawResultsB[i] += pieceB[i];
+                }
+                done += work;
+                scenario.samples = done;
+            }
         }
     }
 
-    private final void processScenarioResults(CalculationScenario[] scenarios) {
+    private final void calculateSSBF(CalculationScenario scenario) {
+        CalculatorParameters params = scenario.calculatorParams;
+        CalculatorShapley shapley = scenario.shapley;
+        CalculatorShapleyDP shapleyDP = scenario.shapleyDP;
+        CalculatorBanzhaf banzhaf = scenario.banzhaf;
+        CalculatorBanzhafDP banzhafDP = scenario.banzhafDP;
+
+        // Split calculations go through their part in every scenario,
+        // the others only run in the first one
+        if (scenario.splitShapley) {
+            shapley.calculateRange(params, scenario.shapleyFrom, scenario.shapleyTo,
+                    scenario.rawResultsA);
+        } else if (scenario.primary) {
+            if (shapleyDP != null) {
+                shapleyDP.calculate(params, scenario.rawResultsA);
+            } else {
+                shapley.calculate(params, scenario.rawResultsA);
+            }
+        }
+
+        if (scenario.splitBanzhaf) {
+            banzhaf.calculateRange(params, scenario.banzhafFrom, scenario.banzhafTo,
+                    scenario.rawResultsB);
+        } else if (scenario.primary) {
+            if (banzhafDP != null) {
+                banzhafDP.calculate(params, scenario.rawResultsB);
+            } else {
+                banzhaf.calculate(params, scenario.rawResultsB);
+            }
+        }
+    }
+
+    private final void calculateDPI(CalculationScenario scenario) {
+        scenario.dpi.calculate(scenario.calculatorParams, scenario.rawResultsA);
+    }
+
+    private final long processScenarioResults(CalculationScenario[] scenarios, Results output) {
+        // Returns the number of samples the estimations took
         int n = scenarios[0].calculatorParams.n;
         long mc = scenarios[0].calculatorParams.monteCarloCount;
-
-        boolean estimated = mc > 0;
         boolean isDpi = scenarios[0].isDpi;
 
-        if (isDpi) {
-            for (int j = 1; j < scenarios.length; ++j) {
+        double[] resultsA = isDpi ? output.dpi : output.shapley;
+        double[] resultsB = output.banzhaf;
+        long samples = 0;
+
+        if (scenarios[0].chunkResultsA != null) {
+            // The parts are added up in order, so the sums are the same for any thread count
+            // Only the finished parts are added if the estimation was stopped
+            double[][] chunkResultsA = scenarios[0].chunkResultsA;
+            double[][] chunkResultsB = scenarios[0].chunkResultsB;
+            int chunks = chunkResultsA.length;
+
+            for (int k = 0; k < chunks; ++k) {
+                if (scenarios[0].chunkDone.get(k) == 0)
+                    continue;
+
+                samples += rangeStart(mc, chunks, k + 1) - rangeStart(mc, chunks, k);
                 for (int i = 0; i < n; ++i) {
-                    scenarios[0].rawResultsA[i] += scenarios[j].rawResultsA[i];
+                    resultsA[i] += chunkResultsA[k][i];
+                    if (!isDpi)
+                        resultsB[i] += chunkResultsB[k][i];
                 }
             }
-
-            if (estimated) {
-                CalculatorDPI.normalizeDPI(scenarios[0].rawResultsA);
+        } else if (mc > 0) {
+            // Only the finished pieces are added if the estimation was stopped
+            for (CalculationScenario scenario : scenarios) {
+                synchronized (scenario) {
+                    samples += scenario.samples;
+                    for (int i = 0; i < n; ++i) {
+                        resultsA[i] += scenario.rawResultsA[i];
+                        if (!isDpi)
+                            resultsB[i] += scenario.rawResultsB[i];
+                    }
+                }
             }
         } else {
-            for (int j = 1; j < scenarios.length; ++j) {
+            for (CalculationScenario scenario : scenarios) {
                 for (int i = 0; i < n; ++i) {
-                    scenarios[0].rawResultsA[i] += scenarios[j].rawResultsA[i];
-                    scenarios[0].rawResultsB[i] += scenarios[j].rawResultsB[i];
+                    resultsA[i] += scenario.rawResultsA[i];
+                    if (!isDpi)
+                        resultsB[i] += scenario.rawResultsB[i];
                 }
             }
 
-            if (estimated) {
-                CalculatorShapley.normalizeSS(scenarios[0].rawResultsA, mc);
-                CalculatorBanzhaf.normalizeBF(scenarios[0].rawResultsB);
-            }
+            // The split calculations only have the pivot and critical counts
+            if (scenarios[0].splitShapley)
+                CalculatorShapley.normalizeSS(resultsA, CalculatorShapley.permutationCount(n));
+            if (scenarios[0].splitBanzhaf)
+                CalculatorBanzhaf.normalizeBF(resultsB);
+
+            return 0;
         }
+
+        if (samples == 0)
+            return 0;
+
+        if (isDpi) {
+            CalculatorDPI.normalizeDPI(resultsA);
+        } else {
+            CalculatorShapley.normalizeSS(resultsA, samples);
+            CalculatorBanzhaf.normalizeBF(resultsB);
+        }
+
+        return samples;
     }
 
     public static class Results {
         public double[] shapley;
         public double[] banzhaf;
         public double[] dpi;
+        // The standard errors of an adaptive estimation, multiplied by the normal quantile of the
+        // confidence level they give the half-widths of the confidence intervals
+        public double[] shapleyError;
+        public double[] banzhafError;
+        public double[] dpiError;
+        // The number of samples an estimation took, fewer than asked for if it was stopped
+        public long samples;
         public long time;
 
         Results(int n, boolean isDpi) {
@@ -176,29 +619,68 @@ public final class ServiceCalculationTask {
         private CalculatorParameters calculatorParams;
 
         private CalculatorShapley shapley;
+        private CalculatorShapleyDP shapleyDP;
         private CalculatorBanzhaf banzhaf;
+        private CalculatorBanzhafDP banzhafDP;
         private CalculatorDPI dpi;
 
         private double[] rawResultsA;
         private double[] rawResultsB;
 
+        private PCGRandom random;
+
         private long mc;
+        private long samples;
+
+        private int chunk;
+        private long chunkSize;
+        private long chunkOffset;
+        private double[][] chunkResultsA;
+        private double[][] chunkResultsB;
+        private AtomicIntegerArray chunkDone;
+
+        private long shapleyFrom;
+        private long shapleyTo;
+
+        private long banzhafFrom;
+        private long banzhafTo;
+
+        private boolean primary;
+        private boolean splitShapley;
+        private boolean splitBanzhaf;
 
         private boolean isDpi;
 
-        private CalculationScenario(CalculatorParameters params) {
+        private CalculationScenario(CalculatorParameters params, PCGRandom random,
+                boolean dynamic) {
+            // The dynamic programs are only created if they might be used
             int n = params.n;
             isDpi = params.weights != null;
 
             calculatorParams = params;
             rawResultsA = new double[n];
 
+            // The calculators run one after the other, they draw from the same stream
+            this.random = random;
+
             if (isDpi) {
-                dpi = new CalculatorDPI(n);
+                dpi = new CalculatorDPI(n, random);
             } else {
-                shapley = new CalculatorShapley(n);
-                banzhaf = new CalculatorBanzhaf(n);
+                shapley = new CalculatorShapley(n, random);
+                banzhaf = new CalculatorBanzhaf(n, random);
                 rawResultsB = new double[n];
+
+                if (dynamic && params.monteCarloCount < 1) {
+                    int votes = 0;
+                    for (int i = 0; i < n; ++i)
+                        votes += params.votes[i];
+
+                    long cases = shapley.classCount(params.votes);
+                    if (CalculatorShapleyDP.isPreferred(n, params.quota, votes, cases))
+                        shapleyDP = new CalculatorShapleyDP(n, votes);
+                    if (CalculatorBanzhafDP.isPreferred(n, params.quota))
+                        banzhafDP = new CalculatorBanzhafDP(n, votes);
+                }
             }
         }
     }
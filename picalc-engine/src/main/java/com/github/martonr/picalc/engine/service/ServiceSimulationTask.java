@@ -1,21 +1,29 @@
 package com.github.martonr.picalc.engine.service;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import com.github.martonr.picalc.engine.calculators.CalculatorBanzhaf;
+import com.github.martonr.picalc.engine.calculators.CalculatorBanzhafDP;
 import com.github.martonr.picalc.engine.calculators.CalculatorDPI;
 import com.github.martonr.picalc.engine.calculators.CalculatorParameters;
 import com.github.martonr.picalc.engine.calculators.CalculatorShapley;
+import com.github.martonr.picalc.engine.calculators.CalculatorShapleyDP;
 import com.github.martonr.picalc.engine.generators.GeneratorPartitionRandom;
+import com.github.martonr.picalc.engine.random.PCGRandom;
 import com.github.martonr.picalc.engine.service.SimulationCache.EntryChecker;
 
 public final class ServiceSimulationTask {
 
     private static final double[] ZEROS = {0, 0, 0, 0, 0};
 
+    // A seeded simulation is split into this many parts for every fixed vote value,
+    // whatever the thread count
+    private static final int CHUNKS = 64;
+
     private final ThreadPoolExecutor executor;
     private final int threads;
 
@@ -33,10 +41,15 @@ public final class ServiceSimulationTask {
         limit = limit > 0 ? limit : (votes - n + 1);
 
         ResultDelta output = new ResultDelta(limit);
-        SimulationScenario[] scenarios = createScenarios(params, threads);
+        SimulationScenario[] scenarios = createScenarios(params, limit, threads);
 
         long mc = params.monteCarloCount;
 
+        // Without a seed every thread does one part
+        int chunks = (params.seed != 0) ? (int) Math.min(CHUNKS, mc) : threads;
+        double[][] ssChunks = new double[chunks][5];
+        double[][] bfChunks = new double[chunks][5];
+
         long start = System.nanoTime();
 
         for (int v = 0; v < limit; ++v) {
@@ -44,6 +57,8 @@ public final class ServiceSimulationTask {
                 int t = i;
 
                 scenarios[t].fixed = v + 1;
+                scenarios[t].ssChunks = ssChunks;
+                scenarios[t].bfChunks = bfChunks;
 
                 spawnedTasks.add(executor.submit(() -> simulateScenario(scenarios[t])));
                 // simulateScenario(scenarios[t]);
@@ -55,6 +70,8 @@ public final class ServiceSimulationTask {
             } catch (Exception ex) {
                 // Computation was interrupted
                 ex.printStackTrace();
+                if (scenarios[0].cache != null)
+                    scenarios[0].cache.close();
                 return null;
             } finally {
                 for (Future<?> f : spawnedTasks)
@@ -62,33 +79,27 @@ public final class ServiceSimulationTask {
                 spawnedTasks.clear();
             }
 
-            for (int t = 0; t < threads; ++t) {
-                for (int i = 0; i < 5; ++i) {
-                    output.shapley[v][i] += scenarios[t].ssResults[i];
-                    output.banzhaf[v][i] += scenarios[t].bfResults[i];
-                }
+            // The parts are merged in order
+            long count = 0;
+            for (int k = 0; k < chunks; ++k) {
+                long work = rangeStart(mc, chunks, k + 1) - rangeStart(mc, chunks, k);
+                mergeStatistics(output.shapley[v], ssChunks[k], count, work);
+                mergeStatistics(output.banzhaf[v], bfChunks[k], count, work);
+                count += work;
             }
 
-            output.shapley[v][0] /= mc;
-            output.shapley[v][1] /= mc;
-            output.shapley[v][2] /= mc;
-            output.shapley[v][3] /= threads;
-            output.shapley[v][4] /= threads;
-
-            output.shapley[v][4] = Math.sqrt(output.shapley[v][4]);
-
-            output.banzhaf[v][0] /= mc;
-            output.banzhaf[v][1] /= mc;
-            output.banzhaf[v][2] /= mc;
-            output.banzhaf[v][3] /= threads;
-            output.banzhaf[v][4] /= threads;
-
-            output.banzhaf[v][4] = Math.sqrt(output.banzhaf[v][4]);
+            finishStatistics(output.shapley[v], mc);
+            finishStatistics(output.banzhaf[v], mc);
         }
 
-        System.out.println("Simulation had " + scenarios[0].cache.getHits() + " cache hits and "
-                + scenarios[0].cache.getStores() + " cache stores out of " + (limit * mc)
-                + " scenarios.");
+        if (scenarios[0].cache != null) {
+            System.out.println("Simulation had " + scenarios[0].cache.getHits()
+                    + " cache hits (" + scenarios[0].cache.getFileHits() + " from earlier runs) and "
+                    + scenarios[0].cache.getStores() + " cache stores out of " + (limit * mc)
+                    + " scenarios, a hit ratio of "
+                    + String.format("%.3f", scenarios[0].cache.getHitRatio()) + ".");
+            scenarios[0].cache.close();
+        }
 
         output.time = TimeUnit.SECONDS.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
 
@@ -134,31 +145,67 @@ public final class ServiceSimulationTask {
         return output;
     }
 
-    private final SimulationScenario[] createScenarios(SimulationParameters params, int threads) {
+    private final SimulationScenario[] createScenarios(SimulationParameters params, int limit,
+            int threads) {
         SimulationScenario[] output = new SimulationScenario[threads];
 
         int n = params.n;
         int votes = params.votes;
-        SimulationCache cache = new SimulationCache(n, (votes - n + 1));
 
-        long mc = params.monteCarloCount;
-        long c = mc / threads;
-        long r = mc - (c * threads);
+        // In a seeded simulation an entry would keep the values of whichever sample stored it
+        // first, the calculations run again instead
+        SimulationCache cache = (params.seed == 0) ? createCache(params, limit) : null;
 
-        for (int i = 0; i < threads; ++i) {
-            // Distribute the work between threads
-            long work = (i < r) ? (c + 1) : c;
+        // Every scenario gets its own stream split from one generator
+        PCGRandom random = new PCGRandom();
 
-            output[i] = new SimulationScenario(params);
+        for (int i = 0; i < threads; ++i) {
+            output[i] = new SimulationScenario(params, random.split());
 
             output[i].cache = cache;
-            output[i].checker = cache.createNewChecker();
-            output[i].mc = work;
+            output[i].checker = (cache != null) ? cache.createNewChecker() : null;
+            output[i].chunk = i;
         }
 
         return output;
     }
 
+    private static final SimulationCache createCache(SimulationParameters params, int limit) {
+        int n = params.n;
+        int votes = params.votes;
+
+        long budget = (params.cacheMemory < 0) ? SimulationCache.defaultBudget()
+                : params.cacheMemory;
+        int htSize = SimulationCache.maximumSize(n, budget);
+        if (htSize < 0)
+            return null;
+
+        // The other players share the votes the fixed player does not have,
+        // the table does not have to be more than twice the number of vote distributions
+        long partitions = GeneratorPartitionRandom.count(votes - limit, votes - 1, n - 1);
+        while (htSize > 0 && (1L << (htSize - 1)) >= partitions)
+            htSize--;
+
+        SimulationCache cache = new SimulationCache(n, (votes - n + 1), htSize);
+
+        // The file has room for the scenarios of every fixed vote, so it does not depend on the
+        // limit of a run
+        if (params.cacheDirectory != null && !params.cacheDirectory.isEmpty()) {
+            cache.setFile(SimulationCacheFile.open(Paths.get(params.cacheDirectory),
+                    SimulationCacheFile.fingerprint(params), n,
+                    GeneratorPartitionRandom.count(n - 1, votes - 1, n - 1)));
+        }
+
+        return cache;
+    }
+
+    private static final long rangeStart(long count, int parts, int i) {
+        // Splits the count into equal parts, the first ones get the remainder
+        long c = count / parts;
+        long r = count - (c * parts);
+        return c * i + ((i < r) ? i : r);
+    }
+
     private final SimulationScenario[] createSingleScenarios(SimulationParameters params,
             ResultDeltaSingle result) {
         SimulationScenario[] output = new SimulationScenario[threads];
@@ -167,11 +214,14 @@ public final class ServiceSimulationTask {
         int c = mc / threads;
         int r = mc - (c * threads);
 
+        PCGRandom random = new PCGRandom();
+
         int offset = 0;
         for (int i = 0; i < threads; ++i) {
+            // The samples are stored by their number, only the streams have to be fixed
             int work = (i < r) ? (c + 1) : c;
 
-            output[i] = new SimulationScenario(params);
+            output[i] = new SimulationScenario(params, random.split());
 
             output[i].sc = work;
 
@@ -187,11 +237,19 @@ public final class ServiceSimulationTask {
     }
 
     private final void simulateScenario(SimulationScenario scenario) {
+        // The scenarios take every threads-th part
+        int chunks = scenario.ssChunks.length;
+        for (int k = scenario.chunk; k < chunks; k += threads)
+            simulateChunk(scenario, k);
+    }
+
+    private final void simulateChunk(SimulationScenario scenario, int k) {
         SimulationCache cache = scenario.cache;
         EntryChecker checker = scenario.checker;
         SimulationParameters simulationParams = scenario.simulationParams;
         CalculatorParameters calculatorParams = scenario.calculatorParams;
         GeneratorPartitionRandom generator = scenario.generator;
+        PCGRandom random = scenario.random;
 
         int n = simulationParams.n;
         // Divide the remaining votes between the remaining players
@@ -201,12 +259,19 @@ public final class ServiceSimulationTask {
         int f = scenario.fixed;
         generator.initialize(v - f, m, f);
 
-        long mc = scenario.mc;
+        long all = simulationParams.monteCarloCount;
+        long seed = simulationParams.seed;
+        int chunks = scenario.ssChunks.length;
+        long from = rangeStart(all, chunks, k);
+        long mc = rangeStart(all, chunks, k + 1) - from;
         double tolerance = simulationParams.tolerance;
 
+        double[] ssResults = scenario.ssChunks[k];
+        double[] bfResults = scenario.bfChunks[k];
+
         // Zero the scenario arrays
-        System.arraycopy(ZEROS, 0, scenario.ssResults, 0, 5);
-        System.arraycopy(ZEROS, 0, scenario.bfResults, 0, 5);
+        System.arraycopy(ZEROS, 0, ssResults, 0, 5);
+        System.arraycopy(ZEROS, 0, bfResults, 0, 5);
 
         long emc = calculatorParams.monteCarloCount;
         boolean estimated = emc > 0;
@@ -215,11 +280,17 @@ public final class ServiceSimulationTask {
         boolean inCache;
         double ssDelta = 0, bfDelta = 0;
         for (long i = 0; i < mc; ++i) {
+            // A seeded sample always draws from the stream of its number
+            if (seed != 0)
+                random.reseed(seed, (f - 1) * all + from + i);
+
             calculatorParams.votes = generator.next();
-            checker.setVotesAndValue(calculatorParams.votes, calculatorParams.votes[n - 1]);
 
             inCache = false;
-            inCache = cache.get(checker);
+            if (cache != null) {
+                checker.setVotesAndValue(calculatorParams.votes, calculatorParams.votes[n - 1]);
+                inCache = cache.get(checker);
+            }
 
             if (!inCache) {
                 // Calculate values
@@ -233,19 +304,16 @@ public final class ServiceSimulationTask {
                 bfDelta = scenario.rawDeltaB[n - 1];
 
                 // Store in the cache
-                cache.store(checker, scenario.rawDeltaA, scenario.rawDeltaB);
+                if (cache != null)
+                    cache.store(checker, scenario.rawDeltaA, scenario.rawDeltaB);
             } else {
                 ssDelta = checker.found[0];
                 bfDelta = checker.found[1];
             }
 
-            updateStatistics(tolerance, ssDelta, scenario.ssResults, i + 1);
-            updateStatistics(tolerance, bfDelta, scenario.bfResults, i + 1);
+            updateStatistics(tolerance, ssDelta, ssResults, i + 1);
+            updateStatistics(tolerance, bfDelta, bfResults, i + 1);
         }
-
-        // Unbiased variance estimates
-        scenario.ssResults[4] /= (mc - 1);
-        scenario.bfResults[4] /= (mc - 1);
     }
 
 
@@ -264,12 +332,17 @@ public final class ServiceSimulationTask {
 
         int sc = scenario.sc;
         int offset = scenario.offset;
+        long seed = simulationParams.seed;
+        PCGRandom random = scenario.random;
 
         boolean estimated = calculatorParams.monteCarloCount > 0;
         boolean isDpi = simulationParams.isDpi;
 
         double ssDelta = 0, bfDelta = 0;
         for (int i = 0; i < sc; ++i) {
+            if (seed != 0)
+                random.reseed(seed, offset + i);
+
             calculatorParams.votes = generator.next();
 
             System.arraycopy(calculatorParams.votes, 0, scenario.votes[offset + i], 0, n);
@@ -289,6 +362,32 @@ public final class ServiceSimulationTask {
         }
     }
 
+    private static final void mergeStatistics(double[] total, double[] part, long count,
+            long partCount) {
+        // Adds the statistics of a part to the statistics of the first count samples
+        // Parallel algorithm for the mean and variance by Chan, Golub and LeVeque, 1979
+        if (partCount < 1)
+            return;
+
+        total[0] += part[0];
+        total[1] += part[1];
+        total[2] += part[2];
+
+        long sum = count + partCount;
+        double delta = part[3] - total[3];
+
+        total[3] += delta * partCount / sum;
+        total[4] += part[4] + delta * delta * ((double) count * partCount / sum);
+    }
+
+    private static final void finishStatistics(double[] result, long mc) {
+        // The ratios of the classes and the unbiased standard deviation
+        result[0] /= mc;
+        result[1] /= mc;
+        result[2] /= mc;
+        result[4] = (mc > 1) ? Math.sqrt(result[4] / (mc - 1)) : 0;
+    }
+
     private final void updateStatistics(double tolerance, double value, double[] result, long n) {
         long valueBits = Double.doubleToRawLongBits(value);
         // Math.abs(double) inlined
@@ -318,8 +417,6 @@ public final class ServiceSimulationTask {
 
     private final void calculateQDDelta(SimulationScenario scenario, boolean estimated) {
         int n = scenario.simulationParams.n;
-        int quotaTo = scenario.simulationParams.quotaTo;
-        int quotaFrom = scenario.simulationParams.quotaFrom;
 
         double[] tmpValues = scenario.rawValues;
         double[] tmpDeltaA = scenario.rawDeltaA;
@@ -327,47 +424,41 @@ public final class ServiceSimulationTask {
 
         CalculatorParameters params = scenario.calculatorParams;
         CalculatorShapley shapley = scenario.shapley;
+        CalculatorShapleyDP shapleyDP = scenario.shapleyDP;
         CalculatorBanzhaf banzhaf = scenario.banzhaf;
+        CalculatorBanzhafDP banzhafDP = scenario.banzhafDP;
 
         long emc = params.monteCarloCount;
 
-        if (estimated) {
-            params.quota = quotaTo;
-            shapley.calculateMC(params, tmpDeltaA, emc);
-            CalculatorShapley.normalizeSS(tmpDeltaA, emc);
-
-            params.quota = quotaFrom;
-            shapley.calculateMC(params, tmpValues, emc);
-            CalculatorShapley.normalizeSS(tmpValues, emc);
-
-            for (int p = 0; p < n; ++p)
-                tmpDeltaA[p] -= tmpValues[p];
-
-            params.quota = quotaTo;
-            banzhaf.calculateMC(params, tmpDeltaB, emc);
-            CalculatorBanzhaf.normalizeBF(tmpDeltaB);
-
-            params.quota = quotaFrom;
-            banzhaf.calculateMC(params, tmpValues, emc);
-            CalculatorBanzhaf.normalizeBF(tmpValues);
+        double[] target = scenario.rawTarget;
 
-            for (int p = 0; p < n; ++p)
-                tmpDeltaB[p] -= tmpValues[p];
+        // Only the last player is used, the others are only calculated when it comes for free
+        if (estimated) {
+            // Both quotas are estimated from the same samples, the noise mostly cancels out of
+            // the difference
+            // The estimators of one player count every sample for the player
+            shapley.calculateMC(params, n - 1, scenario.quotas, target, emc);
+            spread(params.votes, tmpDeltaA, target[0] - target[1]);
+
+            banzhaf.calculateMC(params, n - 1, scenario.quotas, target, emc);
+            spread(params.votes, tmpDeltaB, target[0] - target[1]);
         } else {
-            params.quota = quotaTo;
-            shapley.calculate(params, tmpDeltaA);
-
-            params.quota = quotaFrom;
-            shapley.calculate(params, tmpValues);
-
-            for (int p = 0; p < n; ++p)
-                tmpDeltaA[p] -= tmpValues[p];
+            // Both quotas are calculated with one pass through the permutations or combinations
+            if (shapleyDP != null) {
+                shapleyDP.calculate(params, n - 1, scenario.quotas, target);
+                spread(params.votes, tmpDeltaA, target[0] - target[1]);
+            } else {
+                shapley.calculate(params, scenario.quotas, scenario.rawQuotaA);
 
-            params.quota = quotaTo;
-            banzhaf.calculate(params, tmpDeltaB);
+                for (int p = 0; p < n; ++p)
+                    tmpDeltaA[p] -= tmpValues[p];
+            }
 
-            params.quota = quotaFrom;
-            banzhaf.calculate(params, tmpValues);
+            if (banzhafDP != null) {
+                banzhafDP.calculate(params, scenario.quotas, scenario.rawQuotaB);
+            } else {
+                banzhaf.calculate(params, scenario.quotas, scenario.rawQuotaB);
+            }
 
             for (int p = 0; p < n; ++p)
                 tmpDeltaB[p] -= tmpValues[p];
@@ -383,7 +474,9 @@ public final class ServiceSimulationTask {
 
         CalculatorParameters params = scenario.calculatorParams;
         CalculatorShapley shapley = scenario.shapley;
+        CalculatorShapleyDP shapleyDP = scenario.shapleyDP;
         CalculatorBanzhaf banzhaf = scenario.banzhaf;
+        CalculatorBanzhafDP banzhafDP = scenario.banzhafDP;
         CalculatorDPI dpi = scenario.dpi;
 
         long emc = params.monteCarloCount;
@@ -392,13 +485,18 @@ public final class ServiceSimulationTask {
             params.weights[i] = params.votes[i];
 
         if (estimated) {
-            shapley.calculateMC(params, tmpDeltaA, emc);
-            CalculatorShapley.normalizeSS(tmpDeltaA, emc);
+            if (params.conditional || params.quasiRandom) {
+                shapley.calculateMC(params, tmpDeltaA, emc);
+                banzhaf.calculateMC(params, tmpDeltaB, emc);
+                dpi.calculateMC(params, tmpValues, emc);
+            } else {
+                // The three indices from the same samples, their noise partly cancels out of
+                // the differences
+                dpi.calculateMC(params, tmpDeltaA, tmpDeltaB, tmpValues, emc);
+            }
 
-            banzhaf.calculateMC(params, tmpDeltaB, emc);
+            CalculatorShapley.normalizeSS(tmpDeltaA, emc);
             CalculatorBanzhaf.normalizeBF(tmpDeltaB);
-
-            dpi.calculateMC(params, tmpValues, emc);
             CalculatorDPI.normalizeDPI(tmpValues);
 
             for (int p = 0; p < n; ++p) {
@@ -406,8 +504,16 @@ public final class ServiceSimulationTask {
                 tmpDeltaB[p] -= tmpValues[p];
             }
         } else {
-            shapley.calculate(params, tmpDeltaA);
-            banzhaf.calculate(params, tmpDeltaB);
+            if (shapleyDP != null) {
+                spread(params.votes, tmpDeltaA, shapleyDP.calculate(params, n - 1));
+            } else {
+                shapley.calculate(params, tmpDeltaA);
+            }
+            if (banzhafDP != null) {
+                banzhafDP.calculate(params, tmpDeltaB);
+            } else {
+                banzhaf.calculate(params, tmpDeltaB);
+            }
             dpi.calculate(params, tmpValues);
 
             for (int p = 0; p < n; ++p) {
@@ -417,6 +523,14 @@ public final class ServiceSimulationTask {
         }
     }
 
+    private static final void spread(int[] votes, double[] values, double value) {
+        // Players with the same votes as the last one have the same value, the values of the
+        // others are not known
+        int v = votes[votes.length - 1];
+        for (int i = 0; i < votes.length; ++i)
+            values[i] = (votes[i] == v) ? value : Double.NaN;
+    }
+
     public static class ResultDelta {
         public double[][] shapley;
         public double[][] banzhaf;
@@ -449,50 +563,79 @@ public final class ServiceSimulationTask {
         private CalculatorParameters calculatorParams;
 
         private GeneratorPartitionRandom generator;
+        private PCGRandom random;
 
         private CalculatorShapley shapley;
+        private CalculatorShapleyDP shapleyDP;
         private CalculatorBanzhaf banzhaf;
+        private CalculatorBanzhafDP banzhafDP;
         private CalculatorDPI dpi;
 
         private double[] rawValues;
         private double[] rawDeltaA;
         private double[] rawDeltaB;
+        private double[][] rawQuotaA;
+        private double[][] rawQuotaB;
+        private double[] rawTarget;
         private double[] ssResults;
         private double[] bfResults;
+        private double[][] ssChunks;
+        private double[][] bfChunks;
 
         private int[][] votes;
 
-        private long mc;
+        private int[] quotas;
 
+        private int chunk;
         private int fixed;
         private int offset;
         private int sc;
 
-        private SimulationScenario(SimulationParameters params) {
+        private SimulationScenario(SimulationParameters params, PCGRandom random) {
             int n = params.n;
             boolean isDpi = params.isDpi;
 
             simulationParams = params;
-            generator = new GeneratorPartitionRandom(n - 1);
+
+            // The generator and the calculators run one after the other,
+            // they draw from the same stream
+            this.random = random;
+            generator = new GeneratorPartitionRandom(n - 1, random);
             calculatorParams = new CalculatorParameters();
             calculatorParams.n = n;
             calculatorParams.monteCarloCount = params.indexMonteCarloCount;
+            calculatorParams.conditional = params.conditional;
+            calculatorParams.quasiRandom = params.quasiRandom;
 
-            shapley = new CalculatorShapley(n);
-            banzhaf = new CalculatorBanzhaf(n);
+            shapley = new CalculatorShapley(n, random);
+            banzhaf = new CalculatorBanzhaf(n, random);
             rawValues = new double[n];
             rawDeltaA = new double[n];
             rawDeltaB = new double[n];
 
+            // The index values for the quotaTo and quotaFrom values
+            quotas = new int[] {params.quotaTo, params.quotaFrom};
+            rawQuotaA = new double[][] {rawDeltaA, rawValues};
+            rawQuotaB = new double[][] {rawDeltaB, rawValues};
+            rawTarget = new double[2];
+
             if (isDpi) {
                 calculatorParams.quota = params.quota;
                 calculatorParams.weights = new double[n];
-                dpi = new CalculatorDPI(n);
+                dpi = new CalculatorDPI(n, random);
             }
 
-            if (params.singleVote < 1) {
-                ssResults = new double[5];
-                bfResults = new double[5];
+            // The largest quota used decides the cost of the exact calculations
+            int quota = isDpi ? params.quota
+                    : (params.quotaFrom >= params.quotaTo ? params.quotaFrom : params.quotaTo);
+            if (params.indexMonteCarloCount < 1) {
+                // The votes of the scenarios are not known yet, with distinct votes the enumeration
+                // goes through 2^n cases
+                long cases = (n < 63) ? (1L << n) : Long.MAX_VALUE;
+                if (CalculatorShapleyDP.isPreferred(n, quota, params.votes, cases))
+                    shapleyDP = new CalculatorShapleyDP(n, params.votes);
+                if (CalculatorBanzhafDP.isPreferred(n, quota))
+                    banzhafDP = new CalculatorBanzhafDP(n, params.votes);
             }
         }
     }
@@ -1,94 +1,117 @@
 package com.github.martonr.picalc.engine.service;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import com.github.martonr.picalc.engine.random.PCGRandom;
 
 /**
- * This class implements an LRU cache for storing already computed player vote scenarios. It can
- * save a lot of computation in smaller player count situations.
- * 
- * The least-recently used cache is implemented using a hash table and a circular doubly-linked
- * list.
+ * This class implements a cache for storing already computed player vote scenarios. It can save a
+ * lot of computation in smaller player count situations.
+ *
+ * A vote scenario is the same for every order of the players, so the key of an entry is its votes
+ * sorted, with a 64-bit hash of them, and two keys are equal if the arrays are. Players with the
+ * same votes have the same deltas, an entry keeps the deltas of each distinct vote value in the
+ * order of the sorted votes, so it answers for any vote value of the scenario. A delta that was
+ * not calculated is NaN until a later store fills it in.
+ *
+ * The entries are kept in flat arrays, slot s holds its votes and deltas at s * n. An entry can
+ * be in any slot of a small window after its hash, so there are no chains and nothing to lock.
+ * Every slot has a stamp like a sequence lock: odd while it is being written, so a writer claims
+ * a slot with a compare-and-set of the stamp and readers check that the stamp did not change
+ * while they read. When the window is full an entry is replaced with the CLOCK algorithm, every
+ * hit marks the slot as referenced and the eviction passes over the marked slots once.
+ *
+ * The table starts small and doubles when it is half full or a window is full, up to the size
+ * given to the constructor, so the memory follows the number of entries. While it is copied the
+ * other threads keep using the old table, the stores they make in the meantime are lost.
+ *
+ * Once the table can not grow, a frequency sketch counts the lookups of every scenario, and a new
+ * scenario only replaces the entry CLOCK picked if it was looked up more often. Most scenarios of
+ * a large vote total are seen once, this keeps them from pushing out the ones that keep coming
+ * back.
  */
 public final class SimulationCache {
 
-    private static final int HT_SIZE = 24;
-    private static final int MAX_PROMOTIONS = (1 << 23);
+    // The table does not get smaller than this, unless the maximum is smaller
+    private static final int MIN_SIZE = 4;
 
-    private final Entry[] hashTable;
-    private final int[] lookupTable;
+    // The size of the first table
+    private static final int START_SIZE = 10;
 
-    private final Entry head;
-    private final Entry free;
+    // The slots an entry can be in
+    private static final int WINDOW = 8;
+
+    private static final VarHandle STAMPS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private volatile Table table;
 
     private final int allVotes;
-    private final int mask;
-    private final int max;
+    private final int maxSize;
     private final int n;
 
+    private final AtomicLong lookups = new AtomicLong(0);
     private final AtomicLong hits = new AtomicLong(0);
     private final AtomicLong stores = new AtomicLong(0);
-    private volatile long promotions = 0;
-    private volatile int size = 0;
+    private final AtomicInteger hand = new AtomicInteger(0);
+    private final AtomicLong fileHits = new AtomicLong(0);
+    private final AtomicBoolean growing = new AtomicBoolean(false);
+
+    // The scenarios of earlier runs, null if there is no file
+    private SimulationCacheFile file;
+
+    // The lookup frequencies for the admission, null until the table is at its largest
+    private volatile FrequencySketch sketch;
 
     public SimulationCache(int n, int v) {
-        this(n, v, HT_SIZE);
+        this(n, v, Math.max(MIN_SIZE, maximumSize(n, defaultBudget())));
     }
 
+    /**
+     * Creates an empty cache.
+     *
+     * @param n the number of players
+     * @param v the largest vote a player can have
+     * @param htSize the table can have at most 2^htSize slots
+     */
     public SimulationCache(int n, int v, int htSize) {
         this.n = n;
         this.allVotes = v;
-        // Keep the table at 50% occupancy
-        this.max = (1 << htSize);
-
-        int tableSize = (max << 1);
-        this.mask = tableSize - 1;
-        this.hashTable = new Entry[tableSize];
-
-        for (int i = 0; i < tableSize; ++i)
-            this.hashTable[i] = new Entry();
-
-        this.head = new Entry();
-        this.head.newer = this.head;
-        this.head.older = this.head;
-        this.free = new Entry();
-        this.free.newer = this.free;
-        this.free.older = this.free;
-
-        Entry e;
-        for (int i = 0; i < 16; ++i) {
-            e = new Entry(n);
-            e.older = free;
-            e.newer = free.newer;
-            e.newer.older = e;
-            e.older.newer = e;
-        }
-
-        PCGRandom random = new PCGRandom();
-        this.lookupTable = new int[v];
-
-        // Make sure every value is unique
-        int c, f = 0;
-        boolean found;
-        for (;;) {
-            c = random.nextInt();
-
-            found = false;
-            for (int i = 0; i < f; ++i) {
-                if (lookupTable[i] == c) {
-                    found = true;
-                    break;
-                }
-            }
+        this.maxSize = htSize;
+        this.table = new Table(n, Math.min(START_SIZE, htSize));
+        if (htSize <= START_SIZE)
+            this.sketch = new FrequencySketch(1 << htSize);
+    }
 
-            if (!found) {
-                lookupTable[f] = c;
-                f++;
-            }
+    /**
+     * The largest table that fits in a memory budget.
+     *
+     * @param n the number of players
+     * @param budget the memory the slots can take in bytes
+     * @return the table can have at most 2^htSize slots, -1 if not even the smallest table fits
+     */
+    public static final int maximumSize(int n, long budget) {
+        // A slot takes a stamp, a hash, a mark, n votes and 2n deltas,
+        // the votes and deltas of every slot have to fit in one array
+        long slot = 17 + 20L * n;
+        int htSize = -1;
+        while (htSize < 30 && (slot << (htSize + 1)) <= budget
+                && ((long) n << (htSize + 1)) <= Integer.MAX_VALUE)
+            htSize++;
+        return (htSize < MIN_SIZE) ? -1 : htSize;
+    }
 
-            if (f == v)
-                break;
-        }
+    /**
+     * The memory the cache can take when it is not given, a quarter of the free heap.
+     *
+     * @return the budget in bytes
+     */
+    public static final long defaultBudget() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (runtime.maxMemory() - used) >> 2;
     }
 
     public final EntryChecker createNewChecker() {
@@ -103,256 +126,401 @@ public final class SimulationCache {
         return stores.get();
     }
 
+    /**
+     * The share of the lookups that were hits.
+     *
+     * @return the hit ratio, 0 if there were no lookups
+     */
+    public final double getHitRatio() {
+        long l = lookups.get();
+        return (l > 0) ? (double) hits.get() / l : 0;
+    }
+
     public final int getSize() {
-        return size;
+        return table.size.get();
     }
 
-    private final void computeHash(EntryChecker checker) {
-        // Zobrist hashing
-        int result = 0;
-        for (int i = 0; i < n; ++i)
-            // This way two vote distributions in different order
-            // will hash to the same value
-            result += lookupTable[checker.votes[i] - 1];
+    /**
+     * The hits that were found in the file of earlier runs, they are part of the hits too.
+     *
+     * @return the number of hits from the file
+     */
+    public final long getFileHits() {
+        return fileHits.get();
+    }
 
-        checker.hashCode = result;
+    /**
+     * Keeps the scenarios in a file too, lookups that miss the table look there.
+     *
+     * @param file the file, null for none
+     */
+    final void setFile(SimulationCacheFile file) {
+        this.file = file;
+    }
+
+    /**
+     * Writes out and closes the file of the scenarios, if there is one.
+     */
+    public final void close() {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
     }
 
     public final boolean get(EntryChecker checker) {
-        final int hashCode = checker.hashCode;
-
-        Entry entry;
-        synchronized (hashTable[hashCode & mask]) {
-            entry = hashTable[hashCode & mask].next;
-            while (entry != null) {
-                if (entry.hashCode == hashCode && checker.checkEqualAndFind(entry)) {
-                    hits.incrementAndGet();
-                    long p = promotions;
-                    long diff = p - entry.seenPromotions;
-                    if (diff > MAX_PROMOTIONS || diff < 0) {
-                        synchronized (head) {
-                            if (entry != head.older && entry.newer != null)
-                                promote(entry, p);
-                        }
-                    }
-                    return true;
-                }
-                entry = entry.next;
-            }
+        final long hashCode = checker.hashCode;
+        final int home = (int) hashCode;
+        final int rank = checker.rank;
+        final Table t = table;
+        final FrequencySketch f = sketch;
+
+        lookups.incrementAndGet();
+        if (f != null)
+            f.increment(hashCode);
+
+        // The vote value is not in the scenario
+        if (rank < 0)
+            return false;
+
+        int s;
+        long stamp;
+        double ss, bf;
+        for (int p = 0; p < t.window; ++p) {
+            s = (home + p) & t.mask;
+            stamp = (long) STAMPS.getAcquire(t.stamps, s);
+            // Empty or being written
+            if (stamp == 0 || (stamp & 1) != 0 || t.hashes[s] != hashCode
+                    || !checker.equals(t, s))
+                continue;
+
+            ss = t.ssDelta[s * n + rank];
+            bf = t.bfDelta[s * n + rank];
+
+            // The slot may have been replaced while reading it
+            VarHandle.acquireFence();
+            if ((long) STAMPS.getVolatile(t.stamps, s) != stamp)
+                continue;
+
+            // The values of some vote values may not have been calculated
+            if (Double.isNaN(ss) || Double.isNaN(bf))
+                continue;
+
+            checker.found[0] = ss;
+            checker.found[1] = bf;
+            t.referenced[s] = 1;
+            hits.incrementAndGet();
+            return true;
         }
-        return false;
+
+        return (file != null) && getFromFile(checker);
+    }
+
+    private final boolean getFromFile(EntryChecker checker) {
+        final int rank = checker.rank;
+        if (!file.get(checker.hashCode, checker.sorted, checker.m, checker.ssValues,
+                checker.bfValues))
+            return false;
+
+        double ss = checker.ssValues[rank], bf = checker.bfValues[rank];
+        if (Double.isNaN(ss) || Double.isNaN(bf))
+            return false;
+
+        // The next lookups find it in the table
+        insert(checker);
+
+        checker.found[0] = ss;
+        checker.found[1] = bf;
+        hits.incrementAndGet();
+        fileHits.incrementAndGet();
+        return true;
     }
 
     public final void store(EntryChecker checker, double[] ssDelta, double[] bfDelta) {
-        final int hashCode = checker.hashCode;
-
-        Entry entry;
-        Entry previous;
-        Entry toBeFreed = null;
-        synchronized (hashTable[hashCode & mask]) {
-            entry = hashTable[hashCode & mask].next;
-            previous = hashTable[hashCode & mask];
-            while (entry != null) {
-                if (entry.hashCode == hashCode && checker.checkEqualAndFind(entry)) {
-                    // Entry was inserted in the meantime
-                    return;
-                }
-                previous = entry;
-                entry = entry.next;
-            }
+        // The deltas of the players by vote value
+        checker.collect(ssDelta, bfDelta);
+        if (insert(checker))
+            stores.incrementAndGet();
+
+        if (file != null)
+            file.store(checker.hashCode, checker.sorted, checker.m, checker.ssValues,
+                    checker.bfValues);
+    }
 
-            Entry e = getFreeNode();
-
-            synchronized (head) {
-                if (size >= max) {
-                    // Remove tail from list
-                    toBeFreed = head.newer;
-                    toBeFreed.older.newer = toBeFreed.newer;
-                    toBeFreed.newer.older = toBeFreed.older;
-                    toBeFreed.newer = null;
-                    toBeFreed.older = null;
-                    toBeFreed.seenPromotions = 0;
-                } else {
-                    size++;
-                }
+    private final boolean insert(EntryChecker checker) {
+        final long hashCode = checker.hashCode;
+        final int home = (int) hashCode;
+        final Table t = table;
+
+        int s, empty = -1;
+        long stamp;
+        for (int p = 0; p < t.window; ++p) {
+            s = (home + p) & t.mask;
+            stamp = (long) STAMPS.getAcquire(t.stamps, s);
+            if (stamp == 0) {
+                if (empty < 0)
+                    empty = s;
+                continue;
+            }
 
-                e.newer = head;
-                e.older = head.older;
-                e.older.newer = e;
-                e.newer.older = e;
+            if ((stamp & 1) != 0 || t.hashes[s] != hashCode || !checker.equals(t, s))
+                continue;
 
-                e.seenPromotions = promotions;
-                if (promotions == Long.MAX_VALUE)
-                    promotions = 0;
-                else
-                    promotions++;
+            // Entry was inserted in the meantime, or it does not have these values yet,
+            // if someone else is writing it the values are dropped
+            if (STAMPS.compareAndSet(t.stamps, s, stamp, stamp + 1)) {
+                checker.merge(t, s);
+                STAMPS.setRelease(t.stamps, s, stamp + 2);
             }
+            return false;
+        }
 
-            e.hashCode = hashCode;
-            System.arraycopy(checker.votes, 0, e.votes, 0, n);
-            System.arraycopy(ssDelta, 0, e.ssDelta, 0, n);
-            System.arraycopy(bfDelta, 0, e.bfDelta, 0, n);
+        if (empty >= 0 && STAMPS.compareAndSet(t.stamps, empty, 0L, 1L)) {
+            checker.write(t, empty);
+            STAMPS.setRelease(t.stamps, empty, 2L);
 
-            // Insert into the hashTable
-            previous.next = e;
-            e.prev = previous;
+            if (t.size.incrementAndGet() > (t.mask >> 1) && t.mask + 1 < (1 << maxSize))
+                grow(t);
+            return true;
         }
-        stores.incrementAndGet();
-
-        // Remove LRU entry from the list and table
-        if (toBeFreed != null) {
-            free(toBeFreed);
-            addFreeNode(toBeFreed);
-        } else {
-            addFreeNode(new Entry(n));
+
+        // A full window is only a reason to evict once the table can not grow
+        if (t.mask + 1 < (1 << maxSize)) {
+            grow(t);
+            if (table != t)
+                return insert(checker);
         }
-    }
 
-    private final void promote(Entry e, long p) {
-        // The head is always newer than the first and older than the last
-        e.seenPromotions = p;
-        if (promotions == Long.MAX_VALUE)
-            promotions = 0;
-        else
-            promotions++;
-        // entry was somewhere in the chain
-        // First remove it from the chain
-        e.older.newer = e.newer;
-        e.newer.older = e.older;
-
-        // Insert it as first
-        e.newer = head;
-        e.older = head.older;
-        e.older.newer = e;
-        e.newer.older = e;
-    }
+        // CLOCK, the hand starts at a different slot of the window every time,
+        // a referenced slot gets a second chance
+        int start = hand.getAndIncrement();
+        for (int p = 0; p < (t.window << 1); ++p) {
+            s = (home + ((start + p) & (t.window - 1))) & t.mask;
+            stamp = (long) STAMPS.getAcquire(t.stamps, s);
+            if (stamp == 0 || (stamp & 1) != 0)
+                continue;
+
+            if (t.referenced[s] != 0) {
+                t.referenced[s] = 0;
+                continue;
+            }
 
-    private final void free(Entry e) {
-        synchronized (hashTable[e.hashCode & mask]) {
-            // Remove us from the hashtable
-            e.prev.next = e.next;
-            if (e.next != null)
-                e.next.prev = e.prev;
-
-            // else we were the last in the chain, nothing more to do
-            e.prev = null;
-            e.next = null;
-            e.hashCode = 0;
-        }
-    }
+            // TinyLFU admission, the entry stays if it was looked up at least as often
+            FrequencySketch f = sketch;
+            if (f != null && f.frequency(hashCode) <= f.frequency(t.hashes[s]))
+                return false;
 
-    private final Entry getFreeNode() {
-        Entry result = null;
-        for (;;) {
-            synchronized (free) {
-                if (free.older != free) {
-                    // There are available free nodes
-                    result = free.older;
-                    result.older.newer = result.newer;
-                    result.newer.older = result.older;
-                    result.older = null;
-                    result.newer = null;
-
-                    return result;
-                }
+            if (STAMPS.compareAndSet(t.stamps, s, stamp, stamp + 1)) {
+                checker.write(t, s);
+                STAMPS.setRelease(t.stamps, s, stamp + 2);
+                return true;
             }
-            Thread.onSpinWait();
         }
+        // Every slot was busy, the entry is not stored
+        return false;
     }
 
-    private final void addFreeNode(Entry e) {
-        synchronized (free) {
-            // Insert to tail
-            e.older = free;
-            e.newer = free.newer;
-            e.newer.older = e;
-            e.older.newer = e;
+    private final void grow(Table t) {
+        // One thread copies, the others go on with the old table
+        if (!growing.compareAndSet(false, true))
+            return;
+
+        try {
+            if (table != t)
+                return;
+
+            // If an entry does not fit in its window the table doubles again
+            int htSize = Integer.numberOfTrailingZeros(t.mask + 1);
+            Table bigger;
+            do {
+                bigger = copy(t, ++htSize);
+            } while (bigger.size.get() < 0 && htSize < maxSize);
+
+            if (bigger.size.get() < 0)
+                bigger.size.set(-bigger.size.get() - 1);
+            if (htSize >= maxSize)
+                sketch = new FrequencySketch(1 << htSize);
+            table = bigger;
+        } finally {
+            growing.set(false);
         }
     }
 
-    private static final class Entry {
-        private volatile int hashCode;
-        private volatile long seenPromotions;
-        private volatile Entry next;
-        private volatile Entry prev;
+    private final Table copy(Table t, int htSize) {
+        Table bigger = new Table(n, htSize);
+        int s, count = 0;
+        boolean fits = true;
+        long stamp;
+        for (int i = 0; i <= t.mask; ++i) {
+            stamp = (long) STAMPS.getAcquire(t.stamps, i);
+            if (stamp == 0 || (stamp & 1) != 0)
+                continue;
+
+            s = bigger.findEmpty((int) t.hashes[i]);
+            if (s < 0) {
+                fits = false;
+                continue;
+            }
+
+            // Nobody sees the new table yet, an entry that changed while it was copied
+            // is left out by not setting its stamp
+            bigger.copy(s, t, i);
+            VarHandle.acquireFence();
+            if ((long) STAMPS.getVolatile(t.stamps, i) != stamp)
+                continue;
 
-        private volatile Entry newer;
-        private volatile Entry older;
+            bigger.stamps[s] = 2;
+            count++;
+        }
 
+        // A negative size marks a table that lost entries
+        bigger.size.set(fits ? count : -count - 1);
+        return bigger;
+    }
+
+    private static final class Table {
+        private final long[] stamps;
+        private final long[] hashes;
+        private final byte[] referenced;
+        private final int[] votes;
         private final double[] ssDelta;
         private final double[] bfDelta;
-        private final int[] votes;
 
-        private Entry() {
-            this.votes = null;
-            this.ssDelta = null;
-            this.bfDelta = null;
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        private final int mask;
+        private final int window;
+        private final int n;
+
+        private Table(int n, int htSize) {
+            int slots = (1 << htSize);
+            this.n = n;
+            this.mask = slots - 1;
+            this.window = Math.min(WINDOW, slots);
+
+            this.stamps = new long[slots];
+            this.hashes = new long[slots];
+            this.referenced = new byte[slots];
+            this.votes = new int[slots * n];
+            this.ssDelta = new double[slots * n];
+            this.bfDelta = new double[slots * n];
         }
 
-        private Entry(int n) {
-            this.votes = new int[n];
-            this.ssDelta = new double[n];
-            this.bfDelta = new double[n];
+        private final int findEmpty(int hashCode) {
+            int s;
+            for (int p = 0; p < window; ++p) {
+                s = (hashCode + p) & mask;
+                if (stamps[s] == 0)
+                    return s;
+            }
+            return -1;
+        }
+
+        private final void copy(int s, Table from, int i) {
+            hashes[s] = from.hashes[i];
+            referenced[s] = from.referenced[i];
+            System.arraycopy(from.votes, i * n, votes, s * n, n);
+            System.arraycopy(from.ssDelta, i * n, ssDelta, s * n, n);
+            System.arraycopy(from.bfDelta, i * n, bfDelta, s * n, n);
         }
     }
 
     public final class EntryChecker {
+        // The rank of each vote value in the sorted votes, plus one
         private final int[] table;
+        private final int[] sorted;
+        private final int[] distinct;
+        private final double[] ssValues;
+        private final double[] bfValues;
         private int[] votes;
-        private int value;
-        private int hashCode;
+        private int m;
+        private int rank;
+        private long hashCode;
 
         public final double[] found;
 
         private EntryChecker(int v) {
             this.table = new int[v];
+            this.sorted = new int[n];
+            this.distinct = new int[n];
+            this.ssValues = new double[n];
+            this.bfValues = new double[n];
             this.found = new double[2];
         }
 
         public final void setVotesAndValue(int[] array, int value) {
+            for (int r = 0; r < m; ++r)
+                table[distinct[r] - 1] = 0;
+
             this.votes = array;
-            this.value = value;
+            System.arraycopy(array, 0, sorted, 0, n);
+            Arrays.sort(sorted);
+
+            // The vote values in order, and the hash of the sorted votes
+            long h = 0;
+            int vote;
+            m = 0;
+            for (int i = 0; i < n; ++i) {
+                vote = sorted[i];
+                if (m == 0 || distinct[m - 1] != vote) {
+                    distinct[m] = vote;
+                    table[vote - 1] = ++m;
+                }
+                h = (h + vote) * 0x9E3779B97F4A7C15L;
+            }
 
-            computeHash(this);
+            this.hashCode = mix(h);
+            this.rank = (value > 0 && value <= table.length) ? table[value - 1] - 1 : -1;
         }
 
-        private final boolean checkEqualAndFind(Entry e) {
-            int[] A = this.votes;
-            int[] B = e.votes;
-            int val = this.value;
-            int idx = -1;
+        private final boolean equals(Table t, int s) {
+            // A slot that is being replaced can be equal by chance, the caller checks the stamp
+            return Arrays.equals(t.votes, s * n, s * n + n, sorted, 0, n);
+        }
 
-            // Set up table
-            for (int i = 0; i < n; ++i)
-                table[A[i] - 1]++;
+        private final void collect(double[] ssDelta, double[] bfDelta) {
+            // Players with the same votes have the same deltas, the last one that has them is
+            // kept, which is the target player for its own vote value
+            int r;
+            for (r = 0; r < m; ++r) {
+                ssValues[r] = Double.NaN;
+                bfValues[r] = Double.NaN;
+            }
 
-            // Check the votes in entry for equality
-            // Record the index for the vote value
-            // that we are interested in
             for (int i = 0; i < n; ++i) {
-                if (table[B[i] - 1] <= 0) {
-                    idx = -1;
-                    break;
-                }
-
-                if (B[i] == val)
-                    idx = i;
-
-                table[B[i] - 1]--;
+                r = table[votes[i] - 1] - 1;
+                if (!Double.isNaN(ssDelta[i]))
+                    ssValues[r] = ssDelta[i];
+                if (!Double.isNaN(bfDelta[i]))
+                    bfValues[r] = bfDelta[i];
             }
+        }
 
-            // Reset table
-            for (int i = 0; i < n; ++i)
-                table[A[i] - 1] = 0;
+        private final void write(Table t, int s) {
+            int o = s * n;
+            t.hashes[s] = hashCode;
+            t.referenced[s] = 1;
+            System.arraycopy(sorted, 0, t.votes, o, n);
+            System.arraycopy(ssValues, 0, t.ssDelta, o, m);
+            System.arraycopy(bfValues, 0, t.bfDelta, o, m);
+        }
 
-            if (idx >= 0) {
-                // Found equal
-                this.found[0] = e.ssDelta[idx];
-                this.found[1] = e.bfDelta[idx];
-                return true;
+        private final void merge(Table t, int s) {
+            // Fills in the values the entry does not have yet
+            int o = s * n;
+            for (int r = 0; r < m; ++r) {
+                if (Double.isNaN(t.ssDelta[o + r]))
+                    t.ssDelta[o + r] = ssValues[r];
+                if (Double.isNaN(t.bfDelta[o + r]))
+                    t.bfDelta[o + r] = bfValues[r];
             }
-
-            return false;
         }
     }
+
+    private static final long mix(long z) {
+        // MurmurHash3 64-bit finalizer
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
 }
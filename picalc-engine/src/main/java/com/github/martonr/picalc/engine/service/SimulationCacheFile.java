@@ -0,0 +1,306 @@
+package com.github.martonr.picalc.engine.service;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The scenarios of the simulation cache kept in a memory-mapped file, so later runs with the same
+ * parameters find the scenarios earlier runs calculated.
+ *
+ * The file has a header with the fingerprint of the parameters the values depend on, and a table
+ * of slots laid out like the table of the cache: a stamp, the 64-bit hash of the sorted votes,
+ * the sorted votes and the deltas of each distinct vote value. The stamps work the same way, odd
+ * while a slot is being written, so the threads of a run share the file without locks. A run
+ * that stopped while writing a slot leaves its stamp odd, and that slot is not used again. A file
+ * that is open in another run is locked, the second run goes on without it. There is no
+ * eviction, a full window replaces one of its slots.
+ */
+final class SimulationCacheFile {
+
+    private static final long MAGIC = 0x5049_4341_4C43_4631L;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER = 64;
+
+    // The file does not get larger than this, the parts that were never written are holes in
+    // the file on most file systems
+    private static final long FILE_BYTES = (1L << 26);
+
+    // The slots an entry can be in
+    private static final int WINDOW = 8;
+
+    private static final VarHandle STAMPS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MappedByteBuffer buffer;
+
+    private final int n;
+    private final int mask;
+    private final int slot;
+    private final int deltas;
+
+    private SimulationCacheFile(FileChannel channel, FileLock lock, MappedByteBuffer buffer, int n,
+            int slots) {
+        this.channel = channel;
+        this.lock = lock;
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.nativeOrder());
+        this.n = n;
+        this.mask = slots - 1;
+
+        // The stamp and the hash, the votes padded to 8 bytes, then the deltas
+        this.deltas = 16 + ((4 * n + 7) & ~7);
+        this.slot = deltas + 16 * n;
+    }
+
+    /**
+     * Opens the file of a fingerprint in a directory, creates it if there is none or it does not
+     * match.
+     *
+     * @param directory the directory of the files
+     * @param fingerprint the hash of the parameters the values depend on
+     * @param n the number of players
+     * @param partitions the number of scenarios there can be
+     * @return the file, null if it can not be used
+     */
+    static final SimulationCacheFile open(Path directory, long fingerprint, int n,
+            long partitions) {
+        // The size only depends on the fingerprint, so the file is the same for every run
+        long slot = 16 + ((4L * n + 7) & ~7) + 16L * n;
+        int slots = 1 << 4;
+        while (slots < (1 << 30) && slots < partitions
+                && HEADER + slot * (slots << 1) <= FILE_BYTES)
+            slots <<= 1;
+        if (HEADER + slot * slots > FILE_BYTES)
+            return null;
+
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(directory);
+            Path path = directory.resolve(String.format("scenarios-%016x.cache", fingerprint));
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+
+            // Another run of this program has it, or another simulation of this one
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException ex) {
+                lock = null;
+            }
+
+            if (lock == null) {
+                System.out.println("Scenario cache file " + path + " is in use, not using it.");
+                channel.close();
+                return null;
+            }
+
+            // A new or truncated file is all zeros, every slot is empty
+            SimulationCacheFile file;
+            long size = HEADER + slot * slots;
+            if (!matches(channel, fingerprint, n, slots, size)) {
+                channel.truncate(0);
+                file = new SimulationCacheFile(channel, lock,
+                        channel.map(FileChannel.MapMode.READ_WRITE, 0, size), n, slots);
+                file.create(fingerprint, slots);
+            } else {
+                file = new SimulationCacheFile(channel, lock,
+                        channel.map(FileChannel.MapMode.READ_WRITE, 0, size), n, slots);
+            }
+
+            return file;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            try {
+                if (channel != null)
+                    channel.close();
+            } catch (IOException ignored) {
+                // Nothing else to do
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The hash of the parameters the deltas of a scenario depend on: the players, the votes, the
+     * quotas, and how the indices are calculated.
+     *
+     * @param params the parameters of the simulation
+     * @return the fingerprint
+     */
+    static final long fingerprint(SimulationParameters params) {
+        long h = mix(VERSION);
+        h = mix(h ^ params.n);
+        h = mix(h ^ params.votes);
+        if (params.isDpi) {
+            h = mix(h ^ 1L);
+            h = mix(h ^ params.quota);
+        } else {
+            h = mix(h ^ 2L);
+            h = mix(h ^ params.quotaFrom);
+            h = mix(h ^ params.quotaTo);
+        }
+
+        // Estimated deltas are only reused by runs that estimate them the same way
+        if (params.indexMonteCarloCount > 0) {
+            h = mix(h ^ params.indexMonteCarloCount);
+            h = mix(h ^ (params.conditional ? 1L : 0L) ^ (params.quasiRandom ? 2L : 0L));
+        }
+        return h;
+    }
+
+    /**
+     * Writes the file to the disk and closes it.
+     */
+    final void close() {
+        try {
+            buffer.force();
+            lock.release();
+            channel.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static final boolean matches(FileChannel channel, long fingerprint, int n,
+            int slots, long size) throws IOException {
+        if (channel.size() != size)
+            return false;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+        channel.read(header, 0);
+        return header.getLong(0) == MAGIC && header.getInt(8) == VERSION && header.getInt(12) == n
+                && header.getInt(16) == slots && header.getLong(24) == fingerprint;
+    }
+
+    private final void create(long fingerprint, int slots) {
+        buffer.putInt(8, VERSION);
+        buffer.putInt(12, n);
+        buffer.putInt(16, slots);
+        buffer.putLong(24, fingerprint);
+        // The header is valid once the magic number is there
+        buffer.putLong(0, MAGIC);
+    }
+
+    /**
+     * Looks up a scenario.
+     *
+     * @param hashCode the hash of the sorted votes
+     * @param sorted the sorted votes
+     * @param m the number of distinct vote values
+     * @param ssValues the Shapley-Shubik deltas of each vote value are copied here
+     * @param bfValues the Banzhaf deltas of each vote value are copied here
+     * @return true if the scenario is in the file
+     */
+    final boolean get(long hashCode, int[] sorted, int m, double[] ssValues, double[] bfValues) {
+        int home = (int) hashCode, o, s;
+        long stamp;
+        for (int p = 0; p < WINDOW; ++p) {
+            s = (home + p) & mask;
+            o = HEADER + s * slot;
+            stamp = (long) STAMPS.getAcquire(buffer, o);
+            if (stamp == 0 || (stamp & 1) != 0 || buffer.getLong(o + 8) != hashCode
+                    || !equals(o, sorted))
+                continue;
+
+            for (int r = 0; r < m; ++r) {
+                ssValues[r] = buffer.getDouble(o + deltas + 8 * r);
+                bfValues[r] = buffer.getDouble(o + deltas + 8 * (n + r));
+            }
+
+            // The slot may have been replaced while reading it
+            VarHandle.acquireFence();
+            if ((long) STAMPS.getVolatile(buffer, o) == stamp)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stores a scenario, or fills in the deltas it does not have yet.
+     *
+     * @param hashCode the hash of the sorted votes
+     * @param sorted the sorted votes
+     * @param m the number of distinct vote values
+     * @param ssValues the Shapley-Shubik deltas of each vote value, NaN if not known
+     * @param bfValues the Banzhaf deltas of each vote value, NaN if not known
+     */
+    final void store(long hashCode, int[] sorted, int m, double[] ssValues, double[] bfValues) {
+        int home = (int) hashCode, o, s, empty = -1;
+        long stamp;
+        for (int p = 0; p < WINDOW; ++p) {
+            s = (home + p) & mask;
+            o = HEADER + s * slot;
+            stamp = (long) STAMPS.getAcquire(buffer, o);
+            if (stamp == 0) {
+                if (empty < 0)
+                    empty = o;
+                continue;
+            }
+
+            if ((stamp & 1) != 0 || buffer.getLong(o + 8) != hashCode || !equals(o, sorted))
+                continue;
+
+            if (STAMPS.compareAndSet(buffer, o, stamp, stamp + 1)) {
+                merge(o, m, ssValues, bfValues);
+                STAMPS.setRelease(buffer, o, stamp + 2);
+            }
+            return;
+        }
+
+        // Without an empty slot the hash picks the one that is replaced
+        o = (empty >= 0) ? empty
+                : HEADER + ((home + (int) (hashCode >>> 61)) & mask) * slot;
+        stamp = (long) STAMPS.getAcquire(buffer, o);
+        if ((stamp & 1) != 0 || !STAMPS.compareAndSet(buffer, o, stamp, stamp + 1))
+            return;
+
+        buffer.putLong(o + 8, hashCode);
+        for (int i = 0; i < n; ++i)
+            buffer.putInt(o + 16 + 4 * i, sorted[i]);
+        for (int r = 0; r < m; ++r) {
+            buffer.putDouble(o + deltas + 8 * r, ssValues[r]);
+            buffer.putDouble(o + deltas + 8 * (n + r), bfValues[r]);
+        }
+        STAMPS.setRelease(buffer, o, stamp + 2);
+    }
+
+    private final boolean equals(int o, int[] sorted) {
+        for (int i = 0; i < n; ++i)
+            if (buffer.getInt(o + 16 + 4 * i) != sorted[i])
+                return false;
+        return true;
+    }
+
+    private final void merge(int o, int m, double[] ssValues, double[] bfValues) {
+        int a, b;
+        for (int r = 0; r < m; ++r) {
+            a = o + deltas + 8 * r;
+            b = o + deltas + 8 * (n + r);
+            if (Double.isNaN(buffer.getDouble(a)))
+                buffer.putDouble(a, ssValues[r]);
+            if (Double.isNaN(buffer.getDouble(b)))
+                buffer.putDouble(b, bfValues[r]);
+        }
+    }
+
+    private static final long mix(long z) {
+        // MurmurHash3 64-bit finalizer
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return z ^ (z >>> 33);
+    }
+}
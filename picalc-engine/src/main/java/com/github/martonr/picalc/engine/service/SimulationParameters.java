@@ -3,6 +3,17 @@ package com.github.martonr.picalc.engine.service;
 public final class SimulationParameters {
     public long monteCarloCount = 0;
     public long indexMonteCarloCount = 0;
+    // If not 0, the simulation is reproducible with this seed
+    public long seed = 0;
+    // If true, the index estimations count every player that would be pivotal or critical
+    public boolean conditional = false;
+    // If true, the index estimations draw their samples from a scrambled Halton sequence
+    public boolean quasiRandom = false;
+    // The memory the scenario cache can take in bytes, 0 turns it off, below 0 it is set from the
+    // free heap
+    public long cacheMemory = -1;
+    // If set, the scenario cache is also kept in a file in this directory for later runs
+    public String cacheDirectory = null;
     public int n;
     public int votes;
     public int quota;
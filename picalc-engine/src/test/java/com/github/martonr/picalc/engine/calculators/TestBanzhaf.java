@@ -59,4 +59,136 @@ class TestBanzhaf {
         long elapsed = System.nanoTime() - start;
         System.out.println("Calculated in " + elapsed / 1000L + " us");
     }
+
+    @Test
+    void compareClasses() {
+        // Few distinct vote values, the players are grouped into classes
+        final int[] votes = new int[] {4, 4, 4, 9, 9, 1, 1, 1, 1, 0, 13, 13, 4, 9, 1, 2};
+        final int n = votes.length;
+        final double[] players = new double[n];
+        final double[] grouped = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorBanzhaf calculator = new CalculatorBanzhaf(n);
+
+        for (int quota : new int[] {1, total / 3, total / 2 + 1, total - 2, total}) {
+            params.quota = quota;
+
+            long start = System.nanoTime();
+            calculator.calculatePlayers(params, players);
+            long elapsedA = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            calculator.calculateClasses(params, grouped);
+            long elapsedB = System.nanoTime() - start;
+
+            System.out.println("Quota " + quota + " players " + elapsedA / 1000L
+                    + " us, classes " + elapsedB / 1000L + " us");
+
+            Assertions.assertArrayEquals(players, grouped, 0.0000001);
+        }
+    }
+
+    @Test
+    void calculateManyClassPlayers() {
+        // 30 players with 6 distinct vote values
+        final int n = 30;
+        final int[] votes = new int[n];
+        final double[] grouped = new double[n];
+        final double[] counted = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i) {
+            votes[i] = 2 + 3 * (i % 6);
+            total += votes[i];
+        }
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+        params.quota = total / 2 + 1;
+
+        long start = System.nanoTime();
+        new CalculatorBanzhaf(n).calculate(params, grouped);
+        long elapsed = System.nanoTime() - start;
+
+        new CalculatorBanzhafDP(n, total).calculate(params, counted);
+
+        System.out.println("Calculated " + n + " players in " + elapsed / 1000L + " us");
+
+        Assertions.assertArrayEquals(counted, grouped, 0.0000001);
+    }
+
+    @Test
+    void compareGrayCode() {
+        // Distinct votes, the players are enumerated one by one
+        final int[] votes =
+                new int[] {1, 17, 4, 3, 9, 23, 2, 11, 6, 5, 30, 15, 8, 14, 19, 7, 0, 12, 21, 10};
+        final int n = votes.length;
+        final double[][] combinations = new double[1][n];
+        final double[] gray = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorBanzhaf calculator = new CalculatorBanzhaf(n);
+
+        for (int quota : new int[] {1, total / 2 + 1, (total * 3) / 4}) {
+            params.quota = quota;
+
+            long start = System.nanoTime();
+            calculator.calculate(params, new int[] {quota}, combinations);
+            long elapsedA = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            calculator.calculatePlayers(params, gray);
+            long elapsedB = System.nanoTime() - start;
+
+            System.out.println("Quota " + quota + " combinations " + elapsedA / 1000L
+                    + " us, Gray code " + elapsedB / 1000L + " us");
+
+            Assertions.assertArrayEquals(combinations[0], gray, 0.0000001);
+        }
+    }
+
+    @Test
+    void calculateRanges() {
+        // The ranges added up give the same counts as the whole enumeration
+        final int[] votes = new int[] {1, 17, 4, 3, 9, 23, 2, 11, 6, 5, 30, 15, 8, 14};
+        final int n = votes.length;
+        final double[] whole = new double[n];
+        final double[] part = new double[n];
+        final double[] parts = new double[n];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+        params.quota = 70;
+
+        CalculatorBanzhaf calculator = new CalculatorBanzhaf(n);
+        calculator.calculatePlayers(params, whole);
+
+        long count = CalculatorBanzhaf.combinationCount(n);
+        long[] bounds = new long[] {0, 1, 1000, 1001, 7777, count};
+        for (int j = 1; j < bounds.length; ++j) {
+            calculator.calculateRange(params, bounds[j - 1], bounds[j], part);
+            for (int i = 0; i < n; ++i)
+                parts[i] += part[i];
+        }
+        CalculatorBanzhaf.normalizeBF(parts);
+
+        Assertions.assertArrayEquals(whole, parts, 0.0000001);
+    }
 }
@@ -0,0 +1,195 @@
+package com.github.martonr.picalc.engine.calculators;
+
+import com.github.martonr.picalc.engine.random.PCGRandom;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.Arrays;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TestBanzhafDP {
+
+    private final int quota = 19;
+    private final int[] votes = new int[] {3, 5, 8, 8, 12};
+    private final double[] expected =
+            new double[] {0.076923, 0.076923, 0.230769, 0.230769, 0.384615};
+    private final double[] banzhaf = new double[votes.length];
+
+    @Test
+    void calculateBanzhaf() {
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.quota = quota;
+
+        int n = votes.length;
+        params.n = n;
+        CalculatorBanzhafDP calculator = new CalculatorBanzhafDP(n, 36);
+        long start = System.nanoTime();
+
+        calculator.calculate(params, banzhaf);
+        for (int i = 0; i < votes.length; i++) {
+            System.out.println(votes[i] + " -> " + banzhaf[i] + " | " + expected[i]);
+        }
+        System.out.println();
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Calculated in " + elapsed / 1000L + " us");
+
+        Assertions.assertArrayEquals(expected, banzhaf, 0.00001);
+    }
+
+    @Test
+    void compareWithEnumeration() {
+        final int[] votes =
+                new int[] {1, 17, 4, 4, 9, 23, 2, 11, 6, 6, 30, 5, 8, 14, 3, 7, 0, 12};
+        final int n = votes.length;
+        final double[] enumerated = new double[n];
+        final double[] counted = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorBanzhaf enumeration = new CalculatorBanzhaf(n);
+        // Start smaller than needed, the calculator has to grow
+        CalculatorBanzhafDP calculator = new CalculatorBanzhafDP(n, 10);
+
+        for (int quota : new int[] {1, 50, total / 2 + 1, 120, total, total + 5}) {
+            params.quota = quota;
+
+            long start = System.nanoTime();
+            enumeration.calculate(params, enumerated);
+            long elapsedA = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            calculator.calculate(params, counted);
+            long elapsedB = System.nanoTime() - start;
+
+            System.out.println("Quota " + quota + " enumeration " + elapsedA / 1000L
+                    + " us, dynamic program " + elapsedB / 1000L + " us");
+
+            Assertions.assertArrayEquals(enumerated, counted, 0.0000001);
+        }
+    }
+
+    @Test
+    void calculateQuotaRange() {
+        // Every quota from a single pass has to match the single quota calculation
+        final int[] votes = new int[] {1, 17, 4, 4, 9, 23, 2, 11, 6, 6, 30, 5, 8, 14, 3, 7, 0, 12};
+        final int n = votes.length;
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        final int[] quotas = new int[total + 1];
+        final double[][] enumerated = new double[quotas.length][n];
+        final double[][] counted = new double[quotas.length][n];
+        final double[] single = new double[n];
+
+        for (int j = 0; j < quotas.length; ++j)
+            quotas[j] = quotas.length - j;
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorBanzhaf enumeration = new CalculatorBanzhaf(n);
+        CalculatorBanzhafDP calculator = new CalculatorBanzhafDP(n, 10);
+
+        long start = System.nanoTime();
+        enumeration.calculate(params, quotas, enumerated);
+        long elapsedA = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        calculator.calculate(params, quotas, counted);
+        long elapsedB = System.nanoTime() - start;
+
+        System.out.println(quotas.length + " quotas enumeration " + elapsedA / 1000L
+                + " us, dynamic program " + elapsedB / 1000L + " us");
+
+        for (int j = 0; j < quotas.length; ++j) {
+            params.quota = quotas[j];
+            calculator.calculate(params, single);
+
+            Assertions.assertArrayEquals(single, counted[j], 0.0000001);
+            Assertions.assertArrayEquals(single, enumerated[j], 0.0000001);
+        }
+    }
+
+    @Test
+    void compareWithExactCounts() {
+        // High quotas with hundreds of players, the critical counts are counted with big integers
+        for (int n : new int[] {100, 300}) {
+            final int[] votes = new int[n];
+
+            PCGRandom random = new PCGRandom(7L, 11L);
+            int total = 0;
+            for (int i = 0; i < n; ++i) {
+                votes[i] = 1 + random.nextInt(7);
+                total += votes[i];
+            }
+
+            final int[] quotas = new int[] {total / 2 + 1, total * 3 / 4, total * 19 / 20,
+                    total - 3};
+            final double[][] counted = new double[quotas.length][n];
+
+            CalculatorParameters params = new CalculatorParameters();
+            params.votes = votes;
+            params.n = n;
+
+            long start = System.nanoTime();
+            new CalculatorBanzhafDP(n, total).calculate(params, quotas, counted);
+            long elapsed = System.nanoTime() - start;
+            System.out.println(n + " players, dynamic program " + elapsed / 1000L + " us");
+
+            for (int j = 0; j < quotas.length; ++j)
+                Assertions.assertArrayEquals(exactBanzhaf(votes, quotas[j]), counted[j], 1e-12);
+        }
+    }
+
+    private static double[] exactBanzhaf(int[] votes, int quota) {
+        int n = votes.length;
+        BigInteger[] critical = new BigInteger[n];
+        BigInteger total = BigInteger.ZERO;
+
+        for (int i = 0; i < n; ++i) {
+            // Players with the same votes have the same counts
+            int t = 0;
+            while (votes[t] != votes[i])
+                t++;
+            if (t < i) {
+                critical[i] = critical[t];
+                total = total.add(critical[i]);
+                continue;
+            }
+
+            // The combinations of the other players for every vote total below the quota
+            BigInteger[] counts = new BigInteger[quota];
+            Arrays.fill(counts, BigInteger.ZERO);
+            counts[0] = BigInteger.ONE;
+            for (int k = 0; k < n; ++k) {
+                if (k == i)
+                    continue;
+                for (int w = quota - 1; w >= votes[k]; --w)
+                    counts[w] = counts[w].add(counts[w - votes[k]]);
+            }
+
+            critical[i] = BigInteger.ZERO;
+            for (int w = Math.max(0, quota - votes[i]); w < quota; ++w)
+                critical[i] = critical[i].add(counts[w]);
+            total = total.add(critical[i]);
+        }
+
+        double[] values = new double[n];
+        for (int i = 0; i < n; ++i)
+            values[i] = new BigDecimal(critical[i])
+                    .divide(new BigDecimal(total), MathContext.DECIMAL64).doubleValue();
+        return values;
+    }
+}
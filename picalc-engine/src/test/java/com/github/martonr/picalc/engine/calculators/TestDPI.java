@@ -84,4 +84,89 @@ class TestDPI {
         Assertions.assertArrayEquals(expected, complement);
     }
 
+    @Test
+    void compareClasses() {
+        // Few distinct weights, the players are grouped into classes
+        final double[] weights = new double[] {4, 4, 9, 0, 9, 1, 1, 4, 13};
+        final int n = weights.length;
+        final double[] players = new double[n];
+        final double[] grouped = new double[n];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.weights = weights;
+        params.n = n;
+
+        CalculatorDPI calculator = new CalculatorDPI(n);
+
+        long start = System.nanoTime();
+        calculator.calculatePlayers(params, players);
+        long elapsedA = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        calculator.calculateClasses(params, grouped);
+        long elapsedB = System.nanoTime() - start;
+
+        System.out.println("Players " + elapsedA / 1000L + " us, classes " + elapsedB / 1000L
+                + " us");
+
+        Assertions.assertArrayEquals(players, grouped, 0.0000001);
+    }
+
+    @Test
+    void compareScenarios() {
+        // The closed form gives the same values as going through every scenario
+        final double[] weights = new double[] {4, 7, 9, 0, 2, 1, 5, 13, 3};
+        final int n = weights.length;
+        final double[] scenarios = new double[n];
+        final double[] players = new double[n];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.weights = weights;
+        params.n = n;
+
+        CalculatorDPI calculator = new CalculatorDPI(n);
+
+        long start = System.nanoTime();
+        calculator.calculateScenarios(params, scenarios);
+        long elapsedA = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        calculator.calculatePlayers(params, players);
+        long elapsedB = System.nanoTime() - start;
+
+        System.out.println("Scenarios " + elapsedA / 1000L + " us, closed form "
+                + elapsedB / 1000L + " us");
+
+        Assertions.assertArrayEquals(scenarios, players, 0.0000001);
+    }
+
+    @Test
+    void calculateManyPlayers() {
+        // 20 distinct weights, the values add up to 1 and grow with the weights
+        final int n = 20;
+        final double[] weights = new double[n];
+        final double[] dpi = new double[n];
+
+        for (int i = 0; i < n; ++i)
+            weights[i] = 1 + i * 3;
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.weights = weights;
+        params.n = n;
+
+        long start = System.nanoTime();
+        new CalculatorDPI(n).calculate(params, dpi);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Calculated " + n + " players in " + elapsed / 1000L + " us");
+
+        double sum = 0;
+        for (int i = 0; i < n; ++i) {
+            sum += dpi[i];
+            if (i > 0)
+                Assertions.assertTrue(dpi[i] > dpi[i - 1]);
+        }
+
+        Assertions.assertEquals(1.0, sum, 0.0000001);
+    }
 }
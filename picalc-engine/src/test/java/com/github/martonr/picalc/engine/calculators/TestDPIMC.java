@@ -45,7 +45,95 @@ class TestDPIMC {
         long elapsed = System.nanoTime() - start;
         System.out.println("Calculated in " + elapsed / 1000L + " us");
 
-        Assertions.assertArrayEquals(expected, dpi, 0.05);
+        Assertions.assertArrayEquals(expected, dpi, 0.005);
+    }
+
+    @Test
+    void estimateFusedDPI() {
+        // The three indices from the same samples should be as close to the exact values as the
+        // separate estimates
+        CalculatorParameters params = new CalculatorParameters();
+        int n = weights.length;
+        params.n = n;
+        params.weights = weights;
+        params.votes = new int[n];
+        for (int i = 0; i < n; ++i)
+            params.votes[i] = (int) weights[i];
+        params.quota = 34;
+
+        double[] shapley = new double[n];
+        double[] banzhaf = new double[n];
+        double[] exactShapley = new double[n];
+        double[] exactBanzhaf = new double[n];
+        new CalculatorShapley(n).calculate(params, exactShapley);
+        new CalculatorBanzhaf(n).calculate(params, exactBanzhaf);
+
+        long count = 1000000;
+        CalculatorDPI calculator = new CalculatorDPI(n);
+        long start = System.nanoTime();
+
+        calculator.calculateMC(params, shapley, banzhaf, dpi, count);
+        CalculatorShapley.normalizeSS(shapley, count);
+        CalculatorBanzhaf.normalizeBF(banzhaf);
+        CalculatorDPI.normalizeDPI(dpi);
+
+        for (int i = 0; i < n; i++) {
+            System.out.println(weights[i] + " -> " + shapley[i] + " | " + exactShapley[i] + ", "
+                    + banzhaf[i] + " | " + exactBanzhaf[i] + ", " + dpi[i] + " | "
+                    + expected[i]);
+        }
+        System.out.println();
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Calculated in " + elapsed / 1000L + " us");
+
+        Assertions.assertArrayEquals(exactShapley, shapley, 0.005);
+        Assertions.assertArrayEquals(exactBanzhaf, banzhaf, 0.005);
+        Assertions.assertArrayEquals(expected, dpi, 0.005);
+    }
+
+    @Test
+    void estimateWithFlags() {
+        // The variance reduction flags pick the separate estimates in the simulations, they
+        // have to estimate the same values as the three indices together
+        CalculatorParameters params = new CalculatorParameters();
+        int n = weights.length;
+        params.n = n;
+        params.weights = weights;
+        params.votes = new int[n];
+        for (int i = 0; i < n; ++i)
+            params.votes[i] = (int) weights[i];
+        params.quota = 34;
+
+        long count = 1000000;
+        double[] fused = new double[n];
+        double[] plain = new double[n];
+        double[] quasi = new double[n];
+        double[] shapley = new double[n];
+        double[] banzhaf = new double[n];
+
+        CalculatorDPI calculator = new CalculatorDPI(n);
+        calculator.calculateMC(params, shapley, banzhaf, fused, count);
+        CalculatorDPI.normalizeDPI(fused);
+
+        calculator.calculateMC(params, plain, count);
+        CalculatorDPI.normalizeDPI(plain);
+
+        params.conditional = true;
+        params.quasiRandom = true;
+        calculator.calculateMC(params, quasi, count);
+        CalculatorDPI.normalizeDPI(quasi);
+
+        for (int i = 0; i < n; i++) {
+            System.out.println(weights[i] + " -> " + fused[i] + ", " + plain[i] + ", " + quasi[i]
+                    + " | " + expected[i]);
+        }
+
+        Assertions.assertArrayEquals(expected, fused, 0.005);
+        Assertions.assertArrayEquals(expected, plain, 0.005);
+        Assertions.assertArrayEquals(expected, quasi, 0.005);
+        Assertions.assertArrayEquals(fused, plain, 0.005);
+        Assertions.assertArrayEquals(fused, quasi, 0.005);
     }
 
     @Test
@@ -58,4 +58,108 @@ class TestShapley {
         long elapsed = System.nanoTime() - start;
         System.out.println("Calculated in " + elapsed / 1000L + " us");
     }
+
+    @Test
+    void compareClasses() {
+        // Few distinct vote values, the players are grouped into classes
+        final int[] votes = new int[] {4, 4, 4, 9, 9, 1, 1, 1, 1, 0};
+        final int n = votes.length;
+        final double[] players = new double[n];
+        final double[] grouped = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorShapley calculator = new CalculatorShapley(n);
+
+        for (int quota : new int[] {1, total / 3, total / 2 + 1, total - 2, total}) {
+            params.quota = quota;
+
+            long start = System.nanoTime();
+            calculator.calculatePlayers(params, players);
+            long elapsedA = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            calculator.calculateClasses(params, grouped);
+            long elapsedB = System.nanoTime() - start;
+
+            System.out.println("Quota " + quota + " players " + elapsedA / 1000L
+                    + " us, classes " + elapsedB / 1000L + " us");
+
+            Assertions.assertArrayEquals(players, grouped, 0.0000001);
+        }
+    }
+
+    @Test
+    void calculateManyClassPlayers() {
+        // 30 players with 6 distinct vote values
+        final int n = 30;
+        final int[] votes = new int[n];
+        final double[] grouped = new double[n];
+        final double[] counted = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i) {
+            votes[i] = 2 + 3 * (i % 6);
+            total += votes[i];
+        }
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+        params.quota = total / 2 + 1;
+
+        long start = System.nanoTime();
+        new CalculatorShapley(n).calculate(params, grouped);
+        long elapsed = System.nanoTime() - start;
+
+        new CalculatorShapleyDP(n, total).calculate(params, counted);
+
+        System.out.println("Calculated " + n + " players in " + elapsed / 1000L + " us");
+
+        Assertions.assertArrayEquals(counted, grouped, 0.0000001);
+    }
+
+    @Test
+    void calculateRanges() {
+        // The ranges added up give exactly the same counts as the whole calculation
+        final int[] votes = new int[] {1, 17, 4, 3, 9, 23, 2, 11, 6, 4, 9};
+        final int n = votes.length;
+        final double[] whole = new double[n];
+        final double[] players = new double[n];
+        final double[] part = new double[n];
+        final double[] parts = new double[n];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorShapley calculator = new CalculatorShapley(n);
+        long count = calculator.classCount(votes);
+
+        for (int quota : new int[] {1, 20, 45, 89}) {
+            params.quota = quota;
+            calculator.calculateClasses(params, whole);
+            calculator.calculatePlayers(params, players);
+
+            for (int i = 0; i < n; ++i)
+                parts[i] = 0;
+
+            long[] bounds = new long[] {0, 1, 13, 400, 401, count};
+            for (int j = bounds.length - 1; j > 0; --j) {
+                calculator.calculateRange(params, bounds[j - 1], bounds[j], part);
+                for (int i = 0; i < n; ++i)
+                    parts[i] += part[i];
+            }
+            CalculatorShapley.normalizeSS(parts, CalculatorShapley.permutationCount(n));
+
+            Assertions.assertArrayEquals(whole, parts, 0);
+            Assertions.assertArrayEquals(players, whole, 0);
+        }
+    }
 }
@@ -0,0 +1,201 @@
+package com.github.martonr.picalc.engine.calculators;
+
+import com.github.martonr.picalc.engine.random.PCGRandom;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TestShapleyDP {
+
+    private final int quota = 14;
+    private final int[] votes = new int[] {3, 5, 8, 8, 12};
+    private final double[] expected = new double[] {0.11667, 0.11667, 0.20, 0.20, 0.36667};
+    private final double[] shapley = new double[votes.length];
+
+    @Test
+    void calculateShapley() {
+        CalculatorParameters params = new CalculatorParameters();
+        int n = votes.length;
+        params.n = n;
+        params.votes = votes;
+        params.quota = quota;
+
+        CalculatorShapleyDP calculator = new CalculatorShapleyDP(n, 36);
+        long start = System.nanoTime();
+
+        calculator.calculate(params, shapley);
+        for (int i = 0; i < votes.length; i++) {
+            System.out.println(votes[i] + " -> " + shapley[i] + " | " + expected[i]);
+        }
+        System.out.println();
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Calculated in " + elapsed / 1000L + " us");
+
+        Assertions.assertArrayEquals(expected, shapley, 0.00001);
+    }
+
+    @Test
+    void compareWithEnumeration() {
+        final int[] votes = new int[] {1, 17, 4, 4, 9, 23, 0, 11, 6, 30};
+        final int n = votes.length;
+        final double[] enumerated = new double[n];
+        final double[] counted = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorShapley enumeration = new CalculatorShapley(n);
+        // Start smaller than needed, the calculator has to grow
+        CalculatorShapleyDP calculator = new CalculatorShapleyDP(n, 10);
+
+        for (int quota : new int[] {1, 30, total / 2 + 1, 80, total}) {
+            params.quota = quota;
+
+            long start = System.nanoTime();
+            enumeration.calculate(params, enumerated);
+            long elapsedA = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            calculator.calculate(params, counted);
+            long elapsedB = System.nanoTime() - start;
+
+            System.out.println("Quota " + quota + " enumeration " + elapsedA / 1000L
+                    + " us, dynamic program " + elapsedB / 1000L + " us");
+
+            Assertions.assertArrayEquals(enumerated, counted, 0.0000001);
+        }
+    }
+
+    @Test
+    void calculateManyPlayers() {
+        // The Shapley-Shubik values always add up to 1
+        final int n = 200;
+        final int[] votes = new int[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i) {
+            votes[i] = 1 + (i * 37) % 150;
+            total += votes[i];
+        }
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+        params.quota = (total * 2) / 3;
+
+        double[] results = new double[n];
+        CalculatorShapleyDP calculator = new CalculatorShapleyDP(n, total);
+
+        long start = System.nanoTime();
+        calculator.calculate(params, results);
+        long elapsed = System.nanoTime() - start;
+
+        double sum = 0;
+        for (int i = 0; i < n; ++i)
+            sum += results[i];
+
+        System.out.println("Calculated " + n + " players in " + elapsed / 1000L + " us");
+
+        Assertions.assertEquals(1.0, sum, 0.0000001);
+    }
+
+    @Test
+    void calculateQuotaRange() {
+        // Every quota from a single pass has to match the single quota calculation
+        final int[] votes = new int[] {1, 17, 4, 4, 9, 23, 0, 11, 6, 30};
+        final int n = votes.length;
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        final int[] quotas = new int[total + 1];
+        final double[][] enumerated = new double[quotas.length][n];
+        final double[][] counted = new double[quotas.length][n];
+        final double[] single = new double[n];
+
+        for (int j = 0; j < quotas.length; ++j)
+            quotas[j] = quotas.length - j;
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorShapley enumeration = new CalculatorShapley(n);
+        CalculatorShapleyDP calculator = new CalculatorShapleyDP(n, 10);
+
+        long start = System.nanoTime();
+        enumeration.calculate(params, quotas, enumerated);
+        long elapsedA = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        calculator.calculate(params, quotas, counted);
+        long elapsedB = System.nanoTime() - start;
+
+        System.out.println(quotas.length + " quotas enumeration " + elapsedA / 1000L
+                + " us, dynamic program " + elapsedB / 1000L + " us");
+
+        for (int j = 0; j < quotas.length; ++j) {
+            params.quota = quotas[j];
+            calculator.calculate(params, single);
+
+            Assertions.assertArrayEquals(single, counted[j], 0.0000001);
+            Assertions.assertArrayEquals(single, enumerated[j], 0.0000001);
+        }
+    }
+
+    @Test
+    void preferCheaperCalculation() {
+        // The enumeration goes through the classes of equal votes, not the permutations
+        // 20 players with distinct votes have 2^20 cases
+        Assertions.assertTrue(CalculatorShapleyDP.isPreferred(20, 60, 120, 1L << 20));
+        Assertions.assertTrue(CalculatorShapleyDP.isPreferred(20, 1000000, 2000000,
+                Long.MAX_VALUE));
+        // 20 players with the same votes have 21 cases
+        Assertions.assertFalse(CalculatorShapleyDP.isPreferred(20, 60, 120, 21));
+        Assertions.assertFalse(CalculatorShapleyDP.isPreferred(3, 60, 120, 1L << 3));
+        // A parliament with more than a few parties is cheaper with the dynamic program
+        Assertions.assertTrue(CalculatorShapleyDP.isPreferred(12, 51, 100, 1L << 12));
+        // Large vote totals make it more expensive than the enumeration
+        Assertions.assertFalse(CalculatorShapleyDP.isPreferred(12, 50001, 100000, 1L << 12));
+    }
+
+    @Test
+    void calculatePlayer() {
+        // The value of one player has to match the value from the calculation of every player
+        final int n = 200;
+        final int[] votes = new int[n];
+        final int[] quotas = new int[] {900, 600};
+        final double[][] all = new double[2][n];
+        final double[] single = new double[2];
+
+        PCGRandom random = new PCGRandom(42L, 54L);
+        for (int i = 0; i < n; ++i)
+            votes[i] = 1 + random.nextInt(10);
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.votes = votes;
+        params.n = n;
+
+        CalculatorShapleyDP calculator = new CalculatorShapleyDP(n, 1200);
+
+        long start = System.nanoTime();
+        calculator.calculate(params, quotas, all);
+        long elapsedA = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        calculator.calculate(params, n - 1, quotas, single);
+        long elapsedB = System.nanoTime() - start;
+
+        System.out.println("Every player " + elapsedA / 1000L + " us, one player "
+                + elapsedB / 1000L + " us");
+
+        for (int j = 0; j < quotas.length; ++j)
+            Assertions.assertEquals(all[j][n - 1], single[j], 0.0000001);
+    }
+}
@@ -38,6 +38,176 @@ class TestShapleyMC {
         Assertions.assertArrayEquals(expected, shapley, 0.01);
     }
 
+    @Test
+    void estimateConditionalShapley() {
+        // A parliament of a few parties and many single seats, counting every player that would
+        // be pivotal should be closer to the exact values with the same number of samples
+        int[] votes = new int[58];
+        int[] parties = new int[] {120, 90, 60, 40, 20, 10, 5, 5};
+        System.arraycopy(parties, 0, votes, 0, parties.length);
+        for (int i = parties.length; i < votes.length; ++i)
+            votes[i] = 1;
+
+        CalculatorParameters params = new CalculatorParameters();
+        int n = votes.length;
+        params.n = n;
+        params.votes = votes;
+        params.quota = 201;
+
+        double[] exact = new double[n];
+        new CalculatorShapleyDP(n, 400).calculate(params, exact);
+
+        int runs = 10;
+        long count = 100000;
+        double[] results = new double[n];
+        double[] errors = new double[2];
+        CalculatorShapley calculator = new CalculatorShapley(n);
+        long start = System.nanoTime();
+
+        for (int r = 0; r < runs; ++r) {
+            for (int mode = 0; mode < 2; ++mode) {
+                params.conditional = mode == 1;
+                calculator.calculateMC(params, results, count);
+                normalizeSS(results, count);
+                // Relative errors, the single seats count as much as the parties
+                for (int i = 0; i < n; ++i)
+                    errors[mode] += Math.pow((results[i] - exact[i]) / exact[i], 2) / runs;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Relative squared error: " + errors[0]);
+        System.out.println("Conditional relative squared error: " + errors[1]);
+        System.out.println("Calculated in " + elapsed / 1000L + " us");
+
+        Assertions.assertTrue(errors[1] < errors[0]);
+    }
+
+    @Test
+    void estimatePlayerShapley() {
+        CalculatorParameters params = new CalculatorParameters();
+        int n = votes.length;
+        params.n = n;
+        params.votes = votes;
+        params.quota = quota;
+
+        CalculatorShapley calculator = new CalculatorShapley(n);
+        long start = System.nanoTime();
+
+        int[] quotas = new int[] {quota};
+        double[] value = new double[1];
+        for (int i = 0; i < n; i++) {
+            calculator.calculateMC(params, i, quotas, value, count);
+            shapley[i] = value[0];
+        }
+
+        for (int i = 0; i < votes.length; i++) {
+            System.out.println(votes[i] + " -> " + shapley[i] + " | " + expected[i]);
+        }
+        System.out.println();
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Calculated in " + elapsed / 1000L + " us");
+
+        Assertions.assertArrayEquals(expected, shapley, 0.01);
+    }
+
+    @Test
+    void estimateQuasiRandomShapley() {
+        // The error of independent samples falls like 1 / sqrt(N), the error of the Halton points
+        // should fall faster in a small game
+        CalculatorParameters params = new CalculatorParameters();
+        int n = votes.length;
+        params.n = n;
+        params.votes = votes;
+        params.quota = quota;
+
+        double[] exact = new double[n];
+        new CalculatorShapleyDP(n, 100).calculate(params, exact);
+
+        int runs = 20;
+        double[] results = new double[n];
+        double[] errors = new double[2];
+        CalculatorShapley calculator = new CalculatorShapley(n);
+        long start = System.nanoTime();
+
+        for (long count = 1000; count <= 100000; count *= 10) {
+            for (int mode = 0; mode < 2; ++mode) {
+                params.quasiRandom = mode == 1;
+                errors[mode] = 0;
+                for (int r = 0; r < runs; ++r) {
+                    calculator.calculateMC(params, results, count);
+                    normalizeSS(results, count);
+                    for (int i = 0; i < n; ++i)
+                        errors[mode] += Math.pow(results[i] - exact[i], 2) / runs / n;
+                }
+                errors[mode] = Math.sqrt(errors[mode]);
+            }
+            System.out.println(count + " samples, RMSE: " + errors[0] + " | Halton: " + errors[1]);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Calculated in " + elapsed / 1000L + " us");
+
+        Assertions.assertTrue(errors[1] < errors[0]);
+    }
+
+    @Test
+    void estimateQuotaDeltaShapley() {
+        // The difference of the estimates for two quotas from the same permutations should be
+        // closer to the exact difference than the difference of two separate estimates, with
+        // the same number of draws
+        int[] votes = new int[58];
+        int[] parties = new int[] {120, 90, 60, 40, 20, 10, 5, 5};
+        System.arraycopy(parties, 0, votes, 0, parties.length);
+        for (int i = parties.length; i < votes.length; ++i)
+            votes[i] = 1;
+
+        CalculatorParameters params = new CalculatorParameters();
+        int n = votes.length;
+        params.n = n;
+        params.votes = votes;
+
+        int[] quotas = new int[] {201, 200};
+        double[][] exact = new double[2][n];
+        new CalculatorShapleyDP(n, 400).calculate(params, quotas, exact);
+
+        int runs = 10;
+        long count = 10000;
+        double[][] results = new double[2][n];
+        double[] errors = new double[4];
+        CalculatorShapley calculator = new CalculatorShapley(n);
+        long start = System.nanoTime();
+
+        for (int r = 0; r < runs; ++r) {
+            for (int mode = 0; mode < 4; ++mode) {
+                params.conditional = mode >= 2;
+                if ((mode & 1) == 0) {
+                    for (int q = 0; q < 2; ++q) {
+                        params.quota = quotas[q];
+                        calculator.calculateMC(params, results[q], count);
+                    }
+                } else {
+                    calculator.calculateMC(params, quotas, results, 2 * count);
+                }
+
+                normalizeSS(results[0], (mode & 1) == 0 ? count : 2 * count);
+                normalizeSS(results[1], (mode & 1) == 0 ? count : 2 * count);
+                for (int i = 0; i < n; ++i)
+                    errors[mode] += Math.pow(results[0][i] - results[1][i] - exact[0][i]
+                            + exact[1][i], 2) / runs;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Delta squared error: " + errors[0] + " | coupled: " + errors[1]);
+        System.out.println("Conditional: " + errors[2] + " | coupled: " + errors[3]);
+        System.out.println("Calculated in " + elapsed / 1000L + " us");
+
+        Assertions.assertTrue(errors[1] < errors[0]);
+        Assertions.assertTrue(errors[3] < errors[2]);
+    }
+
     void normalizeSS(double[] values, long emc) {
         for (int i = 0; i < values.length; ++i)
             values[i] /= emc;
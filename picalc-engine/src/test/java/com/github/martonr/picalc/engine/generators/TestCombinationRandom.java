@@ -40,4 +40,42 @@ class TestCombinationRandom {
 
         Assertions.assertEquals(count, sum);
     }
+
+    @Test
+    void generateLargeRCombinations() {
+        // More players than fit into a word, the bitmask has to match the members
+        int players = 130;
+        GeneratorCombinationRandom cGenerator = new GeneratorCombinationRandom(players);
+
+        int m;
+        int[] combination;
+        long total = 0;
+        long start = System.nanoTime();
+        for (long j = count; j > 0; --j) {
+            combination = cGenerator.next();
+            m = cGenerator.m;
+            total += m;
+
+            int bits = 0;
+            for (int w = 0; w < cGenerator.bits.length; ++w)
+                bits += Long.bitCount(cGenerator.bits[w]);
+            Assertions.assertEquals(m, bits);
+
+            for (int i = 0; i < m; ++i) {
+                int p = combination[i];
+                Assertions.assertTrue(p < players);
+                Assertions.assertEquals(1, (cGenerator.bits[p >>> 6] >>> p) & 1);
+                if (i > 0)
+                    Assertions.assertTrue(combination[i - 1] < p);
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Average size: " + (double) total / count);
+        System.out.println("Processed " + count + " random combinations of " + players
+                + " players in " + elapsed / 1000L + " us");
+
+        Assertions.assertEquals(players / 2.0, (double) total / count, 0.1);
+    }
 }
@@ -0,0 +1,39 @@
+package com.github.martonr.picalc.engine.generators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TestGrayCode {
+
+    private final int size = 5;
+
+    @Test
+    void generateGrayCode() {
+        GeneratorGrayCode gGenerator = new GeneratorGrayCode(size);
+        boolean[] seen = new boolean[1 << size];
+        seen[0] = true;
+
+        int count = 0;
+        long previous = 0, mask;
+        long start = System.nanoTime();
+        while (gGenerator.hasNext) {
+            int bit = gGenerator.next();
+            mask = gGenerator.mask;
+            System.out.println(Long.toBinaryString(mask | (1L << size)).substring(1));
+
+            // A single element changes in every step, and every subset comes up once
+            Assertions.assertEquals(1L << bit, mask ^ previous);
+            Assertions.assertFalse(seen[(int) mask]);
+            seen[(int) mask] = true;
+
+            previous = mask;
+            count++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Processed " + count + " subsets in " + elapsed / 1000L + " us");
+
+        // Every subset except the starting empty one
+        Assertions.assertEquals(31, count);
+    }
+}
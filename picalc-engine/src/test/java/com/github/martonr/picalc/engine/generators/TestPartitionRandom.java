@@ -238,4 +238,25 @@ class TestPartitionRandom {
 
         Assertions.assertEquals(k * count, sum);
     }
+
+    @Test
+    void countPartitions() {
+        // The partitions of 6 are listed above
+        Assertions.assertEquals(1, GeneratorPartitionRandom.count(6, 6, 1));
+        Assertions.assertEquals(3, GeneratorPartitionRandom.count(6, 6, 2));
+        Assertions.assertEquals(3, GeneratorPartitionRandom.count(6, 6, 3));
+        Assertions.assertEquals(2, GeneratorPartitionRandom.count(6, 6, 4));
+        Assertions.assertEquals(1, GeneratorPartitionRandom.count(6, 6, 6));
+        Assertions.assertEquals(0, GeneratorPartitionRandom.count(6, 6, 7));
+
+        // 4 = 3 + 1 = 2 + 2, 5 = 4 + 1 = 3 + 2, 6 = 5 + 1 = 4 + 2 = 3 + 3
+        Assertions.assertEquals(7, GeneratorPartitionRandom.count(4, 6, 2));
+
+        long start = System.nanoTime();
+        long count = GeneratorPartitionRandom.count(1000, 30000, 500);
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Counted partitions in " + elapsed / 1000L + " us");
+
+        Assertions.assertEquals(Long.MAX_VALUE, count);
+    }
 }
@@ -1,5 +1,6 @@
 package com.github.martonr.picalc.engine.generators;
 
+import java.util.Arrays;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -39,4 +40,39 @@ class TestPermutationRandom {
 
         Assertions.assertEquals(count, sum);
     }
+
+    @Test
+    void generateLazyPermutations() {
+        GeneratorPermutationRandom pGenerator = new GeneratorPermutationRandom(size);
+
+        // Only the first half of every permutation is drawn, the elements must still be
+        // spread evenly over the positions
+        int half = size / 2;
+        int[][] counts = new int[half][size];
+        boolean[] seen = new boolean[size];
+        long start = System.nanoTime();
+        for (long j = count; j > 0; --j) {
+            pGenerator.reset();
+            Arrays.fill(seen, false);
+            for (int i = 0; i < half; ++i) {
+                int value = pGenerator.nextElement();
+                Assertions.assertFalse(seen[value]);
+                seen[value] = true;
+                counts[i][value] += 1;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+
+        for (int i = 0; i < half; ++i) {
+            for (int k = 0; k < size; ++k) {
+                System.out.print(counts[i][k] + " ");
+                Assertions.assertEquals((double) count / size, counts[i][k], count / 50.0);
+            }
+            System.out.println();
+        }
+
+        System.out.println("Processed " + count + " lazy random permutations in "
+                + elapsed / 1000L + " us");
+    }
 }
@@ -0,0 +1,41 @@
+package com.github.martonr.picalc.engine.generators;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TestSubmultiset {
+
+    private final int[] sizes = new int[] {2, 1, 3};
+
+    @Test
+    void generateSubmultisets() {
+        int m = sizes.length;
+        GeneratorSubmultiset sGenerator = new GeneratorSubmultiset(m + 2);
+        sGenerator.initialize(sizes, m);
+
+        int count = 0, value, empty = 0;
+        long start = System.nanoTime();
+        int[] counts;
+        while (sGenerator.hasNext) {
+            counts = sGenerator.next();
+            int total = 0;
+            for (int i = 0; i < m; ++i) {
+                value = counts[i];
+                Assertions.assertTrue(value >= 0 && value <= sizes[i]);
+                total += value;
+                System.out.print(value);
+            }
+            if (total == 0)
+                empty++;
+            System.out.println();
+            count++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Processed " + count + " submultisets in " + elapsed / 1000L + " us");
+
+        // The amount equals (sizes[0] + 1) * ... * (sizes[m - 1] + 1), the empty one included
+        Assertions.assertEquals(3 * 2 * 4, count);
+        Assertions.assertEquals(1, empty);
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.martonr.picalc.engine.random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TestHaltonSequence {
+
+    @Test
+    void generateStratifiedPoints() {
+        // The first b^k points have one coordinate in every interval of length b^-k,
+        // the scrambling has to keep this
+        int dimensions = 5;
+        int[] bases = new int[] {2, 3, 5, 7, 11};
+        long duration, start = System.nanoTime();
+
+        HaltonSequence sequence = new HaltonSequence(dimensions);
+
+        for (int d = 0; d < dimensions; ++d) {
+            int strata = 1;
+            while (strata * bases[d] <= 4096)
+                strata *= bases[d];
+
+            int[] counts = new int[strata];
+            sequence.scramble(new PCGRandom(), strata);
+            for (int i = 0; i < strata; ++i) {
+                sequence.next();
+                double x = sequence.coordinate(d);
+                Assertions.assertTrue(x >= 0 && x < 1);
+                counts[(int) (x * strata)]++;
+            }
+
+            for (int j = 0; j < strata; ++j)
+                Assertions.assertEquals(1, counts[j]);
+            System.out.println("Base " + bases[d] + ": " + strata + " points in " + strata
+                    + " intervals");
+        }
+        duration = System.nanoTime() - start;
+
+        System.out.println("Generated the points in " + duration / 1000L + " us");
+        System.out.println("\n");
+    }
+
+    @Test
+    void generateScrambledPoints() {
+        // The same keys give the same points, new keys give other points with the same average
+        HaltonSequence first = new HaltonSequence(3);
+        HaltonSequence second = new HaltonSequence(3);
+        first.scramble(new PCGRandom(42L, 54L), 100000);
+        second.scramble(new PCGRandom(42L, 54L), 100000);
+
+        double sum = 0;
+        for (int i = 0; i < 100000; ++i) {
+            first.next();
+            second.next();
+            for (int d = 0; d < 3; ++d) {
+                Assertions.assertEquals(first.coordinate(d), second.coordinate(d));
+                sum += first.coordinate(d);
+            }
+        }
+
+        second.scramble(new PCGRandom(43L, 54L), 100000);
+        second.next();
+        Assertions.assertNotEquals(first.coordinate(0), second.coordinate(0));
+
+        System.out.println("Average coordinate: " + sum / 300000);
+        Assertions.assertEquals(0.5, sum / 300000, 0.001);
+    }
+}
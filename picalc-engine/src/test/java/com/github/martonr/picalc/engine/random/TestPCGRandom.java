@@ -1,5 +1,6 @@
 package com.github.martonr.picalc.engine.random;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 class TestPCGRandom {
@@ -26,6 +27,29 @@ class TestPCGRandom {
         System.out.println("\n");
     }
 
+    @Test
+    void generateBulkBits() {
+        int count = 100, ones = 0;
+        long[] bits = new long[2];
+        long duration, start = System.nanoTime();
+
+        PCGRandom rnd = new PCGRandom();
+
+        for (int i = 0; i < 100000; ++i) {
+            rnd.nextBits(bits, count);
+            // The bits above the count have to stay clear
+            Assertions.assertEquals(0, bits[1] >>> (count - 64));
+            ones += Long.bitCount(bits[0]) + Long.bitCount(bits[1]);
+        }
+        duration = System.nanoTime() - start;
+
+        System.out.println("Generated ten million bits in " + duration / 1000L + " us");
+        System.out.println("Ones: " + ones + " zeroes: " + (10000000 - ones));
+        System.out.println("\n");
+
+        Assertions.assertEquals(0.5, ones / 10000000.0, 0.001);
+    }
+
     @Test
     void generateKnownGoodNumbers() {
         // The output of this test needs to match the output of the minimal C
@@ -109,4 +133,46 @@ class TestPCGRandom {
         System.out.println("Generated a million integers in " + duration / 1000L + " us");
         System.out.println("\n");
     }
+
+    @Test
+    void advanceAndSplit() {
+        PCGRandom a = new PCGRandom(42L, 54L);
+        PCGRandom b = new PCGRandom(42L, 54L);
+
+        // Jumping ahead has to land where stepping does
+        for (int i = 0; i < 1000; ++i)
+            a.nextInt();
+        b.advance(1000);
+        Assertions.assertEquals(a.nextInt(), b.nextInt());
+
+        // Going back the same amount gives the same output again
+        int x = a.nextInt();
+        a.advance(-1);
+        Assertions.assertEquals(x, a.nextInt());
+
+        long duration, start = System.nanoTime();
+        for (int i = 0; i < 1000000; ++i)
+            a.advance(0x5DEECE66DL + i);
+        duration = System.nanoTime() - start;
+        System.out.println("Made a million jumps in " + duration / 1000L + " us");
+
+        // Streams split from the same seed are reproducible, but differ from each other
+        PCGRandom c = new PCGRandom(42L, 54L).split();
+        PCGRandom d = new PCGRandom(42L, 54L).split();
+        PCGRandom e = new PCGRandom(42L, 54L);
+        e.split();
+        PCGRandom f = e.split();
+
+        int same = 0;
+        for (int i = 0; i < 1000; ++i) {
+            int v = c.nextInt();
+            Assertions.assertEquals(v, d.nextInt());
+            if (v == f.nextInt())
+                same++;
+        }
+        Assertions.assertTrue(same < 5);
+
+        Assertions.assertEquals(4, new PCGRandom().splits(4).count());
+        System.out.println("\n");
+    }
 }
@@ -1,6 +1,12 @@
 package com.github.martonr.picalc.engine.service;
 
+import com.github.martonr.picalc.engine.calculators.CalculatorBanzhafDP;
 import com.github.martonr.picalc.engine.calculators.CalculatorParameters;
+import com.github.martonr.picalc.engine.calculators.CalculatorShapley;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -126,4 +132,322 @@ class TestServiceCalculation {
         long elapsed = System.nanoTime() - start;
         System.out.println("Finished in " + elapsed / 1000L + " us");
     }
+
+    @Test
+    void calculateBanzhafRanges() {
+        // Large votes, the Banzhaf index is enumerated in ranges on several threads
+        final int[] votes = new int[] {5003, 1201, 7340, 2210, 913, 4127, 3305, 6021, 1777, 2934,
+                8110, 655, 3962, 5480, 2599, 4706};
+        final int n = votes.length;
+        final double[] expected = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.n = n;
+        params.votes = votes;
+        params.quota = total / 2 + 1;
+
+        new CalculatorBanzhafDP(n, total).calculate(params, expected);
+
+        ServiceCalculation service = new ServiceCalculation(4);
+        long start = System.nanoTime();
+
+        service.calculateSSBF(params, result -> {
+            double[] banzhafResult = result.banzhaf;
+            for (int i = 0; i < n; i++) {
+                System.out.println(votes[i] + " -> " + String.format("%.5f", banzhafResult[i])
+                        + " | " + String.format("%.5f", expected[i]));
+            }
+            System.out.println();
+
+            Assertions.assertArrayEquals(expected, banzhafResult, 0.0000001);
+        });
+
+        try {
+            while (service.isRunning())
+                Thread.sleep(100);
+        } catch (Exception ignored) {
+            // Interrupted
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Test took " + elapsed / 1000L + " us");
+    }
+
+    @Test
+    void calculateShapleyRanges() {
+        // Very large votes, the Shapley-Shubik index is enumerated in ranges on several threads
+        final int[] votes =
+                new int[] {500311, 120143, 734017, 221009, 91337, 412771, 330553, 602111, 177707};
+        final int n = votes.length;
+        final double[] expected = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.n = n;
+        params.votes = votes;
+        params.quota = total / 2 + 1;
+
+        new CalculatorShapley(n).calculate(params, expected);
+
+        ServiceCalculation service = new ServiceCalculation(3);
+        long start = System.nanoTime();
+
+        service.calculateSSBF(params, result -> {
+            double[] shapleyResult = result.shapley;
+            for (int i = 0; i < n; i++) {
+                System.out.println(votes[i] + " -> " + String.format("%.5f", shapleyResult[i])
+                        + " | " + String.format("%.5f", expected[i]));
+            }
+            System.out.println();
+
+            // Same as the single thread calculation
+            Assertions.assertArrayEquals(expected, shapleyResult, 0);
+        });
+
+        try {
+            while (service.isRunning())
+                Thread.sleep(100);
+        } catch (Exception ignored) {
+            // Interrupted
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Test took " + elapsed / 1000L + " us");
+    }
+
+    @Test
+    void splitShapleyCounties() {
+        // A council of counties voting with their populations in thousands, the classes are
+        // cheaper to enumerate than the dynamic program, and the enumeration is split
+        final int[] votes = new int[] {503, 360, 334, 641, 399, 417, 455, 527, 294, 370, 299, 189,
+                1278, 301};
+        final int n = votes.length;
+        final double[] expected = new double[n];
+
+        int total = 0;
+        for (int i = 0; i < n; ++i)
+            total += votes[i];
+
+        CalculatorParameters params = new CalculatorParameters();
+        params.n = n;
+        params.votes = votes;
+        params.quota = total / 2 + 1;
+
+        new CalculatorShapley(n).calculate(params, expected);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>());
+        ServiceCalculationTask task = new ServiceCalculationTask(executor, 4);
+
+        long start = System.nanoTime();
+        int ranges = task.shapleyRanges(params);
+        ServiceCalculationTask.Results result = task.startCalculation(params);
+        long elapsed = System.nanoTime() - start;
+        executor.shutdownNow();
+
+        System.out.println(n + " players in " + ranges + " ranges, " + elapsed / 1000L + " us");
+
+        Assertions.assertEquals(4, ranges);
+        Assertions.assertArrayEquals(expected, result.shapley, 0);
+    }
+
+    @Test
+    void calculateSeededMC() {
+        // The same seed gives the same estimates on any number of threads
+        CalculatorParameters params = new CalculatorParameters();
+        params.n = votes.length;
+        params.votes = votes;
+        params.quota = quota;
+        params.monteCarloCount = count;
+        params.seed = 12345L;
+
+        int[] threads = new int[] {1, 3, 4};
+        double[][] shapleyResults = new double[threads.length][];
+        double[][] banzhafResults = new double[threads.length][];
+
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads.length; ++t) {
+            int r = t;
+            ServiceCalculation service = new ServiceCalculation(threads[t]);
+
+            service.calculateSSBF(params, result -> {
+                shapleyResults[r] = result.shapley;
+                banzhafResults[r] = result.banzhaf;
+            });
+
+            try {
+                while (service.isRunning())
+                    Thread.sleep(100);
+            } catch (Exception ignored) {
+                // Interrupted
+            }
+            service.shutdown();
+
+            for (int i = 0; i < votes.length; i++) {
+                System.out.println(votes[i] + " -> " + shapleyResults[r][i] + " | "
+                        + banzhafResults[r][i]);
+            }
+            System.out.println();
+        }
+
+        for (int t = 1; t < threads.length; ++t) {
+            Assertions.assertArrayEquals(shapleyResults[0], shapleyResults[t], 0);
+            Assertions.assertArrayEquals(banzhafResults[0], banzhafResults[t], 0);
+        }
+        Assertions.assertArrayEquals(shapley, shapleyResults[0], 0.01);
+        Assertions.assertArrayEquals(banzhaf, banzhafResults[0], 0.01);
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Test took " + elapsed / 1000L + " us");
+    }
+
+    @Test
+    void calculateAdaptiveMC() {
+        // Stops when every estimate is precise enough, the same seed gives the same estimates
+        CalculatorParameters params = new CalculatorParameters();
+        params.n = votes.length;
+        params.votes = votes;
+        params.quota = quota;
+        params.monteCarloCount = 100000000L;
+        params.precision = 0.002;
+        params.confidence = 0.99;
+        params.seed = 12345L;
+
+        int[] threads = new int[] {1, 4};
+        ServiceCalculationTask.Results[] results = new ServiceCalculationTask.Results[2];
+
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads.length; ++t) {
+            int r = t;
+            ServiceCalculation service = new ServiceCalculation(threads[t]);
+
+            service.calculateSSBF(params, result -> results[r] = result);
+
+            try {
+                while (service.isRunning())
+                    Thread.sleep(100);
+            } catch (Exception ignored) {
+                // Interrupted
+            }
+            service.shutdown();
+
+            for (int i = 0; i < votes.length; i++) {
+                System.out.println(votes[i] + " -> " + results[r].shapley[i] + " +- "
+                        + results[r].shapleyError[i] + " | " + results[r].banzhaf[i] + " +- "
+                        + results[r].banzhafError[i]);
+            }
+            System.out.println("Samples: " + results[r].samples);
+            System.out.println();
+        }
+
+        Assertions.assertArrayEquals(results[0].shapley, results[1].shapley, 0);
+        Assertions.assertArrayEquals(results[0].banzhaf, results[1].banzhaf, 0);
+        Assertions.assertEquals(results[0].samples, results[1].samples);
+
+        Assertions.assertTrue(results[0].samples < params.monteCarloCount);
+        // The errors are standard errors, the precision is for the 95% confidence interval
+        for (int i = 0; i < votes.length; i++) {
+            Assertions.assertTrue(1.95 * results[0].shapleyError[i] <= params.precision);
+            Assertions.assertTrue(1.95 * results[0].banzhafError[i] <= params.precision);
+        }
+        Assertions.assertArrayEquals(shapley, results[0].shapley, 0.01);
+        Assertions.assertArrayEquals(banzhaf, results[0].banzhaf, 0.01);
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Test took " + elapsed / 1000L + " us");
+    }
+
+    @Test
+    void calculateWithDeadline() throws InterruptedException {
+        // Small games are calculated exactly, the estimations run until the deadline
+        CalculatorParameters params = new CalculatorParameters();
+        params.n = votes.length;
+        params.votes = votes;
+        params.quota = quota;
+
+        ServiceCalculationTask.Results[] results = new ServiceCalculationTask.Results[2];
+
+        long start = System.nanoTime();
+
+        // A finished task cleans up the tasks of its service after the callback, which could
+        // cancel the next calculation of the same service, so each one gets its own
+        ServiceCalculation service = new ServiceCalculation(4);
+        CountDownLatch exact = new CountDownLatch(1);
+        service.calculateSSBF(params, 10, TimeUnit.SECONDS, result -> {
+            results[0] = result;
+            exact.countDown();
+        });
+        exact.await();
+        service.shutdown();
+
+        params.monteCarloCount = Long.MAX_VALUE;
+
+        service = new ServiceCalculation(4);
+        CountDownLatch estimated = new CountDownLatch(1);
+        service.calculateSSBF(params, 300, TimeUnit.MILLISECONDS, result -> {
+            results[1] = result;
+            estimated.countDown();
+        });
+        estimated.await();
+        service.shutdown();
+
+        for (int i = 0; i < votes.length; i++) {
+            System.out.println(votes[i] + " -> " + results[1].shapley[i] + " +- "
+                    + results[1].shapleyError[i] + " | " + results[1].banzhaf[i] + " +- "
+                    + results[1].banzhafError[i]);
+        }
+        System.out.println("Samples: " + results[1].samples);
+
+        Assertions.assertEquals(0, results[0].samples);
+        Assertions.assertArrayEquals(shapley, results[0].shapley, 0.0001);
+        Assertions.assertArrayEquals(banzhaf, results[0].banzhaf, 0.0001);
+
+        Assertions.assertTrue(results[1].samples > 0);
+        Assertions.assertArrayEquals(shapley, results[1].shapley, 0.01);
+        Assertions.assertArrayEquals(banzhaf, results[1].banzhaf, 0.01);
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Test took " + elapsed / 1000L + " us");
+        Assertions.assertTrue(elapsed < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    void calculateStopped() throws InterruptedException {
+        // A stopped estimation returns the values estimated so far
+        CalculatorParameters params = new CalculatorParameters();
+        params.n = votes.length;
+        params.votes = votes;
+        params.quota = quota;
+        params.monteCarloCount = Long.MAX_VALUE / 2;
+
+        ServiceCalculationTask.Results[] results = new ServiceCalculationTask.Results[1];
+        ServiceCalculation service = new ServiceCalculation(4);
+
+        CountDownLatch stopped = new CountDownLatch(1);
+        service.calculateSSBF(params, result -> {
+            results[0] = result;
+            stopped.countDown();
+        });
+
+        Thread.sleep(1000);
+        service.cleanupTasks();
+        stopped.await();
+        service.shutdown();
+
+        System.out.println("Samples: " + results[0].samples);
+
+        Assertions.assertTrue(results[0].samples > 0);
+        Assertions.assertTrue(results[0].samples < params.monteCarloCount);
+        Assertions.assertArrayEquals(shapley, results[0].shapley, 0.01);
+        Assertions.assertArrayEquals(banzhaf, results[0].banzhaf, 0.01);
+    }
 }
@@ -1,5 +1,6 @@
 package com.github.martonr.picalc.engine.service;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 class TestServiceSimulationQuota {
@@ -171,4 +172,60 @@ class TestServiceSimulationQuota {
         long elapsed = System.nanoTime() - start;
         System.out.println("Finished in " + elapsed / 1000L + " us");
     }
+
+    @Test
+    void simulateSeeded() {
+        // The same seed gives the same simulation on any number of threads
+        SimulationParameters params = new SimulationParameters();
+        params.n = players;
+        params.votes = vote;
+        params.quotaFrom = qFrom;
+        params.quotaTo = qTo;
+        params.maximumVote = max;
+        params.simulationLimit = limit;
+        params.indexMonteCarloCount = countMC;
+        params.monteCarloCount = count;
+        params.isDpi = false;
+        params.seed = 987654321L;
+
+        int[] threads = new int[] {2, 5};
+        double[][][] shapleyResults = new double[threads.length][][];
+        double[][][] banzhafResults = new double[threads.length][][];
+
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads.length; ++t) {
+            int r = t;
+            ServiceSimulation service = new ServiceSimulation(threads[t]);
+
+            service.simulate(params, result -> {
+                shapleyResults[r] = result.shapley;
+                banzhafResults[r] = result.banzhaf;
+            });
+
+            try {
+                while (service.isRunning())
+                    Thread.sleep(100);
+            } catch (Exception ignored) {
+                // Interrupted
+            }
+            service.shutdown();
+        }
+
+        for (int i = 0; i < limit; i += 30) {
+            System.out.println("vote " + (i + 1) + " : S - m "
+                    + String.format("%.5f", shapleyResults[0][i][3]) + " sd "
+                    + String.format("%.5f", shapleyResults[0][i][4]) + " | B - m "
+                    + String.format("%.5f", banzhafResults[0][i][3]) + " sd "
+                    + String.format("%.5f", banzhafResults[0][i][4]));
+        }
+
+        for (int i = 0; i < limit; ++i) {
+            Assertions.assertArrayEquals(shapleyResults[0][i], shapleyResults[1][i], 0);
+            Assertions.assertArrayEquals(banzhafResults[0][i], banzhafResults[1][i], 0);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Simulate seeded test took " + elapsed / 1000L + " us");
+    }
 }
@@ -4,6 +4,7 @@ import com.github.martonr.picalc.engine.calculators.CalculatorBanzhaf;
 import com.github.martonr.picalc.engine.calculators.CalculatorParameters;
 import com.github.martonr.picalc.engine.calculators.CalculatorShapley;
 import com.github.martonr.picalc.engine.generators.GeneratorPartitionRandom;
+import com.github.martonr.picalc.engine.random.PCGRandom;
 import com.github.martonr.picalc.engine.service.SimulationCache.EntryChecker;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -85,4 +86,214 @@ class TestSimulationCache {
         Assertions.assertEquals(8, cache.getSize());
         Assertions.assertArrayEquals(originalValues, fromCacheValues);
     }
+
+    @Test
+    void mergeValues() {
+        // An entry that only has the values of one vote value is a miss for the others,
+        // until a later store fills them in
+        SimulationCache cache = new SimulationCache(n, v, htSize);
+        EntryChecker checker = cache.createNewChecker();
+
+        int[] votes = new int[] {100, 50, 70, 50, 30};
+        int[] shuffled = new int[] {50, 30, 100, 70, 50};
+        double[] ssDelta = new double[] {Double.NaN, 0.1, Double.NaN, 0.1, Double.NaN};
+        double[] bfDelta = new double[] {Double.NaN, 0.2, Double.NaN, 0.2, Double.NaN};
+
+        checker.setVotesAndValue(votes, 50);
+        Assertions.assertFalse(cache.get(checker));
+        cache.store(checker, ssDelta, bfDelta);
+
+        checker.setVotesAndValue(shuffled, 50);
+        Assertions.assertTrue(cache.get(checker));
+        Assertions.assertEquals(0.1, checker.found[0]);
+        Assertions.assertEquals(0.2, checker.found[1]);
+
+        checker.setVotesAndValue(shuffled, 100);
+        Assertions.assertFalse(cache.get(checker));
+
+        ssDelta = new double[] {Double.NaN, Double.NaN, 0.3, Double.NaN, Double.NaN};
+        bfDelta = new double[] {Double.NaN, Double.NaN, 0.4, Double.NaN, Double.NaN};
+        cache.store(checker, ssDelta, bfDelta);
+
+        checker.setVotesAndValue(votes, 100);
+        Assertions.assertTrue(cache.get(checker));
+        Assertions.assertEquals(0.3, checker.found[0]);
+        Assertions.assertEquals(0.4, checker.found[1]);
+
+        checker.setVotesAndValue(votes, 50);
+        Assertions.assertTrue(cache.get(checker));
+        Assertions.assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void concurrentAccess() throws InterruptedException {
+        // Threads store and look up the same partitions, a hit must never return values
+        // of another entry or of an entry that is half written
+        final int threads = 8;
+        final int count = 200000;
+        SimulationCache cache = new SimulationCache(n, v, 6);
+        Thread[] workers = new Thread[threads];
+        boolean[] failed = new boolean[1];
+
+        for (int t = 0; t < threads; ++t) {
+            final long seed = t;
+            workers[t] = new Thread(() -> {
+                EntryChecker checker = cache.createNewChecker();
+                GeneratorPartitionRandom generator =
+                        new GeneratorPartitionRandom(n - 1, new PCGRandom(seed, 54L));
+                generator.initialize(40, 30, 5);
+                double[] ssDelta = new double[n];
+                double[] bfDelta = new double[n];
+                int[] votes;
+
+                for (int i = 0; i < count; ++i) {
+                    votes = generator.next();
+                    checker.setVotesAndValue(votes, votes[n - 1]);
+
+                    // The values only depend on the partition and the vote value
+                    double key = key(votes);
+                    if (cache.get(checker)) {
+                        if (checker.found[0] != key + votes[n - 1]
+                                || checker.found[1] != key - votes[n - 1])
+                            failed[0] = true;
+                    } else {
+                        for (int p = 0; p < n; ++p) {
+                            ssDelta[p] = key + votes[p];
+                            bfDelta[p] = key - votes[p];
+                        }
+                        cache.store(checker, ssDelta, bfDelta);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+
+        for (Thread worker : workers)
+            worker.join();
+
+        System.out.println("Cache had " + cache.getHits() + " hits and " + cache.getStores()
+                + " stores, " + cache.getSize() + " entries");
+
+        Assertions.assertFalse(failed[0]);
+        Assertions.assertTrue(cache.getHits() > 0);
+        Assertions.assertTrue(cache.getSize() <= 64);
+    }
+
+    private static double key(int[] votes) {
+        double key = 0;
+        for (int vote : votes)
+            key += vote * vote * 1000.0;
+        return key;
+    }
+
+    @Test
+    void growCache() {
+        // The table starts small and keeps the entries when it grows
+        SimulationCache cache = new SimulationCache(n, v, 14);
+        EntryChecker checker = cache.createNewChecker();
+        GeneratorPartitionRandom generator =
+                new GeneratorPartitionRandom(n - 1, new PCGRandom(42L, 54L));
+        generator.initialize(v - 45, v, 45);
+
+        int[][] stored = new int[4000][];
+        double[] delta = new double[n];
+        for (int i = 0; i < stored.length; ++i) {
+            stored[i] = generator.next().clone();
+            checker.setVotesAndValue(stored[i], 45);
+            for (int p = 0; p < n; ++p)
+                delta[p] = key(stored[i]) + stored[i][p];
+            cache.store(checker, delta, delta);
+        }
+
+        int found = 0;
+        for (int i = 0; i < stored.length; ++i) {
+            checker.setVotesAndValue(stored[i], 45);
+            if (cache.get(checker)) {
+                Assertions.assertEquals(key(stored[i]) + 45, checker.found[0]);
+                found++;
+            }
+        }
+
+        System.out.println("Found " + found + " of " + stored.length + " entries, "
+                + cache.getSize() + " in the cache");
+
+        // Only a few entries are evicted before the table is at its largest, when a window is
+        // full, the repeated vote distributions were not stored
+        Assertions.assertTrue(cache.getStores() - cache.getSize() < 10);
+        Assertions.assertTrue(found > stored.length - 10);
+    }
+
+    @Test
+    void sizeFromBudget() {
+        // A slot of 5 players takes 117 bytes
+        Assertions.assertEquals(-1, SimulationCache.maximumSize(n, 1000));
+        Assertions.assertEquals(4, SimulationCache.maximumSize(n, 16 * 117));
+        Assertions.assertEquals(13, SimulationCache.maximumSize(n, 1L << 20));
+        Assertions.assertEquals(30, SimulationCache.maximumSize(1, Long.MAX_VALUE));
+    }
+
+    @Test
+    void serveEveryValue() {
+        // One stored scenario answers for every vote value in it, in any order of the players
+        SimulationCache cache = new SimulationCache(n, v, htSize);
+        EntryChecker checker = cache.createNewChecker();
+
+        int[] votes = new int[] {100, 50, 70, 50, 30};
+        int[] shuffled = new int[] {30, 50, 50, 100, 70};
+        double[] ssDelta = new double[] {0.1, 0.2, 0.3, 0.2, 0.4};
+        double[] bfDelta = new double[] {-0.1, -0.2, -0.3, -0.2, -0.4};
+
+        checker.setVotesAndValue(votes, 30);
+        cache.store(checker, ssDelta, bfDelta);
+
+        for (int i = 0; i < n; ++i) {
+            checker.setVotesAndValue(shuffled, votes[i]);
+            Assertions.assertTrue(cache.get(checker));
+            Assertions.assertEquals(ssDelta[i], checker.found[0]);
+            Assertions.assertEquals(bfDelta[i], checker.found[1]);
+        }
+
+        // A vote value that is not in the scenario, and a different scenario
+        checker.setVotesAndValue(shuffled, 60);
+        Assertions.assertFalse(cache.get(checker));
+
+        shuffled[0] = 31;
+        shuffled[1] = 49;
+        checker.setVotesAndValue(shuffled, 50);
+        Assertions.assertFalse(cache.get(checker));
+
+        Assertions.assertEquals(1, cache.getSize());
+        Assertions.assertEquals(5, cache.getHits());
+    }
+
+    @Test
+    void admitFrequent() {
+        // Half of the lookups are a few recurring scenarios, the others are seen once,
+        // the ones seen once must not push the recurring ones out
+        final int count = 100000;
+        SimulationCache cache = new SimulationCache(n, 3000, 6);
+        EntryChecker checker = cache.createNewChecker();
+
+        GeneratorPartitionRandom rare = new GeneratorPartitionRandom(n - 1, new PCGRandom(1L, 2L));
+        GeneratorPartitionRandom frequent =
+                new GeneratorPartitionRandom(n - 1, new PCGRandom(3L, 2L));
+        rare.initialize(3000 - 45, 3000, 45);
+        frequent.initialize(15, 15, 45);
+        PCGRandom random = new PCGRandom(5L, 6L);
+
+        double[] delta = new double[n];
+        int[] votes;
+        for (int i = 0; i < count; ++i) {
+            votes = (random.nextInt(2) == 0) ? frequent.next() : rare.next();
+            checker.setVotesAndValue(votes, votes[n - 1]);
+            if (!cache.get(checker))
+                cache.store(checker, delta, delta);
+        }
+
+        System.out.println("Hit ratio " + cache.getHitRatio() + " with " + cache.getStores()
+                + " stores");
+
+        Assertions.assertEquals((double) cache.getHits() / count, cache.getHitRatio());
+        Assertions.assertTrue(cache.getHitRatio() > 0.45);
+    }
 }
@@ -0,0 +1,99 @@
+package com.github.martonr.picalc.engine.service;
+
+import com.github.martonr.picalc.engine.service.SimulationCache.EntryChecker;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class TestSimulationCacheFile {
+
+    private int n = 5;
+    private int v = 300;
+
+    @Test
+    void reopenFile() throws Exception {
+        // A later cache with the same fingerprint finds the scenarios of an earlier one
+        Path directory = Files.createTempDirectory("picalc");
+        SimulationParameters params = new SimulationParameters();
+        params.n = n;
+        params.votes = v;
+        params.quotaFrom = 150;
+        params.quotaTo = 200;
+
+        int[] votes = new int[] {100, 50, 70, 50, 30};
+        int[] shuffled = new int[] {50, 30, 100, 70, 50};
+        double[] ssDelta = new double[] {0.1, 0.2, Double.NaN, 0.2, Double.NaN};
+        double[] bfDelta = new double[] {-0.1, -0.2, Double.NaN, -0.2, Double.NaN};
+
+        SimulationCache cache = new SimulationCache(n, v, 4);
+        cache.setFile(SimulationCacheFile.open(directory, SimulationCacheFile.fingerprint(params),
+                n, 1000));
+        EntryChecker checker = cache.createNewChecker();
+        checker.setVotesAndValue(votes, 50);
+        cache.store(checker, ssDelta, bfDelta);
+        cache.close();
+
+        cache = new SimulationCache(n, v, 4);
+        cache.setFile(SimulationCacheFile.open(directory, SimulationCacheFile.fingerprint(params),
+                n, 1000));
+        checker = cache.createNewChecker();
+
+        checker.setVotesAndValue(shuffled, 100);
+        Assertions.assertTrue(cache.get(checker));
+        Assertions.assertEquals(0.1, checker.found[0]);
+        Assertions.assertEquals(-0.1, checker.found[1]);
+
+        // Not calculated
+        checker.setVotesAndValue(shuffled, 70);
+        Assertions.assertFalse(cache.get(checker));
+
+        // The whole scenario was copied into the table with the first hit
+        checker.setVotesAndValue(shuffled, 50);
+        Assertions.assertTrue(cache.get(checker));
+        Assertions.assertEquals(0.2, checker.found[0]);
+        Assertions.assertTrue(cache.get(checker));
+        Assertions.assertEquals(1, cache.getFileHits());
+        Assertions.assertEquals(3, cache.getHits());
+        cache.close();
+
+        // Other quotas have other deltas
+        params.quotaTo = 210;
+        cache = new SimulationCache(n, v, 4);
+        cache.setFile(SimulationCacheFile.open(directory, SimulationCacheFile.fingerprint(params),
+                n, 1000));
+        checker = cache.createNewChecker();
+        checker.setVotesAndValue(shuffled, 100);
+        Assertions.assertFalse(cache.get(checker));
+        cache.close();
+
+        delete(directory);
+    }
+
+    @Test
+    void lockedFile() throws Exception {
+        // A file that is open in another run is not used
+        Path directory = Files.createTempDirectory("picalc");
+        SimulationCacheFile first = SimulationCacheFile.open(directory, 42L, n, 1000);
+        SimulationCacheFile second = SimulationCacheFile.open(directory, 42L, n, 1000);
+
+        Assertions.assertNotNull(first);
+        Assertions.assertNull(second);
+        first.close();
+
+        second = SimulationCacheFile.open(directory, 42L, n, 1000);
+        Assertions.assertNotNull(second);
+        second.close();
+
+        delete(directory);
+    }
+
+    private static void delete(Path directory) throws Exception {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files)
+                Files.delete(file);
+        }
+        Files.delete(directory);
+    }
+}
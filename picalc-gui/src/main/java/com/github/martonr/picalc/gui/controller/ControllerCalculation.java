@@ -141,6 +141,11 @@ public final class ControllerCalculation {
 
     private Results ssbfCalculationResult;
 
+    /**
+     * The number of estimations asked for, a stopped estimation takes fewer
+     */
+    private long estimationCount;
+
     /**
      * Observable collection that stores the currently added Players
      */
@@ -343,6 +348,7 @@ public final class ControllerCalculation {
             if (estimateSelect.isSelected()) {
                 parameters.monteCarloCount = count;
             }
+            estimationCount = parameters.monteCarloCount;
 
             service.calculateSSBF(parameters, this::updateTableWithResults);
         } catch (Exception ignored) {
@@ -371,7 +377,12 @@ public final class ControllerCalculation {
             if (result == null) {
                 progressText.setText("Calculation stopped.");
             } else {
-                progressText.setText("Finished in " + result.time + " seconds.");
+                // A stopped estimation still shows the values taken so far
+                if (result.samples > 0 && result.samples < estimationCount) {
+                    progressText.setText("Stopped after " + result.samples + " estimations.");
+                } else {
+                    progressText.setText("Finished in " + result.time + " seconds.");
+                }
                 int n = currentPlayers.size();
                 double[] shapley = result.shapley;
                 double[] banzhaf = result.banzhaf;
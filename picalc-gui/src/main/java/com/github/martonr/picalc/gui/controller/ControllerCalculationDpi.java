@@ -131,6 +131,11 @@ public final class ControllerCalculationDpi {
 
     private Results dpiCalculationResult;
 
+    /**
+     * The number of estimations asked for, a stopped estimation takes fewer
+     */
+    private long estimationCount;
+
     /**
      * Observable collection that stores the currently added Players
      */
@@ -308,6 +313,7 @@ public final class ControllerCalculationDpi {
             if (estimateSelect.isSelected()) {
                 parameters.monteCarloCount = count;
             }
+            estimationCount = parameters.monteCarloCount;
 
             service.calculateDPI(parameters, this::updateTableWithResults);
         } catch (Exception ignored) {
@@ -336,7 +342,12 @@ public final class ControllerCalculationDpi {
             if (result == null) {
                 progressText.setText("Calculation stopped.");
             } else {
-                progressText.setText("Finished in " + result.time + " seconds.");
+                // A stopped estimation still shows the values taken so far
+                if (result.samples > 0 && result.samples < estimationCount) {
+                    progressText.setText("Stopped after " + result.samples + " estimations.");
+                } else {
+                    progressText.setText("Finished in " + result.time + " seconds.");
+                }
                 int n = currentPlayers.size();
                 double[] dpi = result.dpi;
                 for (int i = 0; i < n; ++i) {
@@ -349,7 +349,7 @@ public final class ControllerSimulationDpi {
             }
 
             // If player count is too large switch to Monte-Carlo estimation
-            if (players > 15 && exactSelect.isSelected()) {
+            if (players > 20 && exactSelect.isSelected()) {
                 estimateSelect.setSelected(true);
                 exactSelect.setDisable(true);
                 return;
@@ -469,7 +469,7 @@ public final class ControllerSimulationDpi {
             }
 
             // If player count is too large switch to Monte-Carlo estimation
-            if (players > 15 && exactSelect.isSelected()) {
+            if (players > 20 && exactSelect.isSelected()) {
                 estimateSelect.setSelected(true);
                 exactSelect.setDisable(true);
                 return;